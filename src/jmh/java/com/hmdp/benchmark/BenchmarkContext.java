@@ -0,0 +1,51 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.config.RedisConfig;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * @Description 基准测试使用的最小 spring 容器，只包含 redis 相关的 bean，不连接数据库
+ * redis 地址通过系统属性 benchmark.redis.host / benchmark.redis.port / benchmark.redis.database 指定
+ * @Date 2023-05-19-10-00
+ * @Author qianzhikang
+ */
+public final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    /**
+     * 创建容器
+     *
+     * @param properties 覆盖的配置项，如 hmdp.cache.local.enabled
+     * @param registrar  注册被测的 bean
+     */
+    public static AnnotationConfigApplicationContext create(Map<String, Object> properties,
+                                                            Consumer<AnnotationConfigApplicationContext> registrar) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.registerBean(PropertySourcesPlaceholderConfigurer.class);
+        context.registerBean(LettuceConnectionFactory.class, BenchmarkContext::connectionFactory);
+        context.registerBean(StringRedisTemplate.class, () -> new StringRedisTemplate(context.getBean(LettuceConnectionFactory.class)));
+        context.register(RedisConfig.class);
+        registrar.accept(context);
+        context.refresh();
+        return context;
+    }
+
+    private static LettuceConnectionFactory connectionFactory() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("benchmark.redis.host", "127.0.0.1"),
+                Integer.getInteger("benchmark.redis.port", 6379));
+        configuration.setDatabase(Integer.getInteger("benchmark.redis.database", 15));
+        return new LettuceConnectionFactory(configuration);
+    }
+}
@@ -0,0 +1,153 @@
+package com.hmdp.benchmark;
+
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IUserService;
+import com.hmdp.service.impl.BlogServiceImpl;
+import com.hmdp.service.impl.FeedServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvCounter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+
+/**
+ * @Description 关注推送滚动分页查询，数据库访问使用内存桩，只度量 redis 访问与组装
+ * @Date 2023-05-19-11-40
+ * @Author qianzhikang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class BlogFeedBenchmark {
+
+    private static final Long USER_ID = 900001L;
+    private static final int FEED_SIZE = 100;
+
+    private AnnotationConfigApplicationContext context;
+    private StringRedisTemplate stringRedisTemplate;
+    private BlogServiceImpl blogService;
+    private long max;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkContext.create(Collections.emptyMap(), c -> {
+            c.registerBean(BlogMapper.class, () -> stub(BlogMapper.class));
+            c.registerBean(IUserService.class, () -> stub(IUserService.class));
+            c.registerBean(IFollowService.class, () -> stub(IFollowService.class));
+            c.registerBean(FeedServiceImpl.class);
+            c.registerBean(LocalCache.class);
+            c.registerBean(CacheClient.class);
+            c.registerBean(UvCounter.class);
+            c.registerBean(BlogServiceImpl.class);
+        });
+        stringRedisTemplate = context.getBean(StringRedisTemplate.class);
+        blogService = context.getBean(BlogServiceImpl.class);
+        max = System.currentTimeMillis();
+        for (int i = 1; i <= FEED_SIZE; i++) {
+            stringRedisTemplate.opsForZSet().add(FEED_KEY + USER_ID, String.valueOf(i), max - i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stringRedisTemplate.delete(FEED_KEY + USER_ID);
+        stringRedisTemplate.delete(stringRedisTemplate.keys(CACHE_USER_KEY + "*"));
+        stringRedisTemplate.delete(stringRedisTemplate.keys(CACHE_BLOG_KEY + "*"));
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Login {
+        @Setup(Level.Trial)
+        public void setup() {
+            UserDTO user = new UserDTO();
+            user.setId(USER_ID);
+            UserHolder.saveUser(user);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            UserHolder.removeUser();
+        }
+    }
+
+    @Benchmark
+    public Result firstPage(Login login) {
+        return blogService.queryBlogOfFollow(max, 0);
+    }
+
+    /**
+     * 数据库桩：按方法名返回固定的笔记与用户，其余方法返回 null
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "selectList":
+                    // 启动时构建热门榜单的扫描（指定了查询列）返回空
+                    return ((Wrapper<?>) args[0]).getSqlSelect() != null
+                            ? Collections.emptyList() : blogs(Arrays.asList(1L, 2L, 3L));
+                case "selectBatchIds":
+                    return blogs(Arrays.asList(1L, 2L, 3L));
+                case "getById":
+                    return user((Long) args[0]);
+                case "listByIds":
+                    return ((Collection<Long>) args[0]).stream().map(BlogFeedBenchmark::user).collect(Collectors.toList());
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "Stub";
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static List<Blog> blogs(List<Long> ids) {
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = new Blog();
+            blog.setId(id);
+            blog.setUserId(id % 10 + 1);
+            blog.setShopId(1L);
+            blog.setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯");
+            blog.setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg");
+            blog.setContent("生活就是一半烟火·一半诗意");
+            blog.setLiked(10);
+            blog.setComments(2);
+            blogs.add(blog);
+        }
+        return blogs;
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        user.setNickName("user_" + id);
+        user.setIcon("/imgs/icons/kjfjsdfj.jpg");
+        return user;
+    }
+}
@@ -0,0 +1,110 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LocalCache;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Description CacheClient 命中与未命中路径，包含 redis 往返与反序列化
+ * @Date 2023-05-19-10-20
+ * @Author qianzhikang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CacheClientBenchmark {
+
+    private static final String KEY_PREFIX = "benchmark:shop:";
+    private static final String LOCAL_KEY_PREFIX = "benchmark:local:shop:";
+    private static final Long HIT_ID = 1L;
+
+    /**
+     * 是否以二进制格式写入，false 时为 json
+     */
+    @Param({"true", "false"})
+    public boolean binaryWrite;
+
+    private AnnotationConfigApplicationContext context;
+    private CacheClient cacheClient;
+    private StringRedisTemplate stringRedisTemplate;
+    private final AtomicLong missId = new AtomicLong(1000);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("hmdp.cache.codec.binary-write", binaryWrite);
+        properties.put("hmdp.cache.local.enabled", true);
+        context = BenchmarkContext.create(properties, c -> {
+            c.registerBean(LocalCache.class);
+            c.registerBean(CacheClient.class);
+        });
+        cacheClient = context.getBean(CacheClient.class);
+        stringRedisTemplate = context.getBean(StringRedisTemplate.class);
+        cacheClient.enableLocalCache(LOCAL_KEY_PREFIX, 1000L, 10L, TimeUnit.MINUTES);
+        cacheClient.set(KEY_PREFIX + HIT_ID, shop(HIT_ID), 30L, TimeUnit.MINUTES);
+        cacheClient.setWithLogicExpire(KEY_PREFIX + "logic:" + HIT_ID, shop(HIT_ID), 30L, TimeUnit.MINUTES);
+        cacheClient.setWithLogicExpire(LOCAL_KEY_PREFIX + HIT_ID, shop(HIT_ID), 30L, TimeUnit.MINUTES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stringRedisTemplate.delete(stringRedisTemplate.keys("benchmark:*"));
+        context.close();
+    }
+
+    @Benchmark
+    public Shop passThroughHit() {
+        return cacheClient.queryWithPassThrough(KEY_PREFIX, HIT_ID, Shop.class, CacheClientBenchmark::shop, 30L, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 每次查询新的 id：redis 未命中、加载、回写
+     */
+    @Benchmark
+    public Shop passThroughMiss() {
+        return cacheClient.queryWithPassThrough(KEY_PREFIX, missId.incrementAndGet(), Shop.class, CacheClientBenchmark::shop, 1L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop logicalExpireHit() {
+        return cacheClient.queryWithLogicalExpire(KEY_PREFIX + "logic:", HIT_ID, Shop.class, CacheClientBenchmark::shop, 30L, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 本地一级缓存命中，不访问 redis
+     */
+    @Benchmark
+    public Shop logicalExpireLocalHit() {
+        return cacheClient.queryWithLogicalExpire(LOCAL_KEY_PREFIX, HIT_ID, Shop.class, CacheClientBenchmark::shop, 30L, TimeUnit.MINUTES);
+    }
+
+    private static Shop shop(Long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        return shop;
+    }
+}
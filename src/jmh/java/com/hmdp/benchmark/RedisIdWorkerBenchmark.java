@@ -0,0 +1,51 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description 全局id生成，对比逐个 INCR 与号段模式
+ * @Date 2023-05-19-10-40
+ * @Author qianzhikang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class RedisIdWorkerBenchmark {
+
+    @Param({"true", "false"})
+    public boolean segmentEnabled;
+
+    private AnnotationConfigApplicationContext context;
+    private RedisIdWorker redisIdWorker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("hmdp.id.segment.enabled", segmentEnabled);
+        context = BenchmarkContext.create(properties, c -> c.registerBean(RedisIdWorker.class));
+        redisIdWorker = context.getBean(RedisIdWorker.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        StringRedisTemplate stringRedisTemplate = context.getBean(StringRedisTemplate.class);
+        stringRedisTemplate.delete(stringRedisTemplate.keys("icr:benchmark:*"));
+        context.close();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("benchmark");
+    }
+}
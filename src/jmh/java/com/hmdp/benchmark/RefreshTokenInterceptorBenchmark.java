@@ -0,0 +1,82 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokenManager;
+import com.hmdp.utils.UserHolder;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * @Description 每个请求都会经过的 token 刷新拦截器，本地会话命中后只剩一次 map 查询
+ * @Date 2023-05-19-11-20
+ * @Author qianzhikang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class RefreshTokenInterceptorBenchmark {
+
+    private static final String TOKEN = "benchmark-token";
+
+    private AnnotationConfigApplicationContext context;
+    private StringRedisTemplate stringRedisTemplate;
+    private RefreshTokenInterceptor interceptor;
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkContext.create(Collections.emptyMap(), c -> {
+            c.registerBean(LoginSessionCache.class);
+            c.registerBean(SignedTokenManager.class);
+        });
+        stringRedisTemplate = context.getBean(StringRedisTemplate.class);
+        Map<String, String> user = new HashMap<>();
+        user.put("id", "1");
+        user.put("nickName", "benchmark");
+        user.put("icon", "");
+        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY + TOKEN, user);
+        stringRedisTemplate.expire(LOGIN_USER_KEY + TOKEN, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        interceptor = new RefreshTokenInterceptor(context.getBean(LoginSessionCache.class), context.getBean(SignedTokenManager.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + TOKEN);
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+        private final MockHttpServletRequest request = new MockHttpServletRequest();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            request.addHeader("authorization", TOKEN);
+        }
+    }
+
+    @Benchmark
+    public boolean preHandle(Request request) throws Exception {
+        try {
+            return interceptor.preHandle(request.request, response, null);
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+}
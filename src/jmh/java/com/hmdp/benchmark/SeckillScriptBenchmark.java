@@ -0,0 +1,85 @@
+package com.hmdp.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description seckill.lua 秒杀资格判断：下单成功、重复下单、库存不足三条路径
+ * @Date 2023-05-19-11-00
+ * @Author qianzhikang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SeckillScriptBenchmark {
+
+    private static final String IN_STOCK_VOUCHER = "900001";
+    private static final String SOLD_OUT_VOUCHER = "900002";
+    private static final String DUPLICATE_USER = "1";
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    private AnnotationConfigApplicationContext context;
+    private StringRedisTemplate stringRedisTemplate;
+    private final AtomicLong userId = new AtomicLong(1000);
+    private final AtomicLong orderId = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkContext.create(Collections.emptyMap(), c -> {
+        });
+        stringRedisTemplate = context.getBean(StringRedisTemplate.class);
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + IN_STOCK_VOUCHER, String.valueOf(Integer.MAX_VALUE));
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + SOLD_OUT_VOUCHER, "0");
+        stringRedisTemplate.opsForSet().add(SECKILL_ORDER_KEY + IN_STOCK_VOUCHER, DUPLICATE_USER);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(
+                SECKILL_STOCK_KEY + IN_STOCK_VOUCHER, SECKILL_STOCK_KEY + SOLD_OUT_VOUCHER,
+                SECKILL_ORDER_KEY + IN_STOCK_VOUCHER, SECKILL_ORDER_STREAM_KEY));
+        context.close();
+    }
+
+    @Benchmark
+    public Long admit() {
+        return execute(IN_STOCK_VOUCHER, String.valueOf(userId.incrementAndGet()));
+    }
+
+    @Benchmark
+    public Long duplicate() {
+        return execute(IN_STOCK_VOUCHER, DUPLICATE_USER);
+    }
+
+    @Benchmark
+    public Long soldOut() {
+        return execute(SOLD_OUT_VOUCHER, String.valueOf(userId.incrementAndGet()));
+    }
+
+    private Long execute(String voucherId, String userId) {
+        return stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_ORDER_STREAM_KEY),
+                voucherId, userId, String.valueOf(orderId.incrementAndGet()));
+    }
+}
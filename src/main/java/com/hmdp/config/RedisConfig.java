@@ -0,0 +1,52 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * @Description redis配置
+ * @Date 2023-05-10-10-20
+ * @Author qianzhikang
+ */
+@Configuration
+public class RedisConfig {
+
+    /**
+     * redis 发布订阅监听容器，各节点通过频道广播本地缓存失效等消息
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        return container;
+    }
+
+    /**
+     * key 为字符串、value 为原始字节的模板，供缓存编解码器使用
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> bytesRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(redisConnectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    /**
+     * 缓存编解码器
+     *
+     * @param binaryWrite 是否以二进制格式写入，滚动发布期间先关闭
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec.binary-write:true}") boolean binaryWrite) {
+        return new BinaryCacheCodec(binaryWrite);
+    }
+}
@@ -10,9 +10,11 @@ import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.time.LocalDate;
 import java.util.List;
 
 /**
@@ -68,6 +70,21 @@ public class BlogController {
         return blogService.queryBlogLikes(id);
     }
 
+    /**
+     * 统计笔记的独立访客数
+     * @param id 笔记id
+     * @param begin 开始日期（含），默认今天
+     * @param end 结束日期（含），默认今天
+     * @return 独立访客数
+     */
+    @GetMapping("/uv/{id}")
+    public Result queryBlogUv(@PathVariable("id") Long id,
+                              @RequestParam(value = "begin", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate begin,
+                              @RequestParam(value = "end", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+        LocalDate today = LocalDate.now();
+        return blogService.queryBlogUv(id, begin == null ? today : begin, end == null ? today : end);
+    }
+
     @GetMapping("/of/user")
     public Result queryBlogByUserId(
             @RequestParam(value = "current", defaultValue = "1") Integer current,
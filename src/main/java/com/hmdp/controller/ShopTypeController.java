@@ -4,12 +4,16 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -26,9 +30,30 @@ public class ShopTypeController {
     private IShopTypeService typeService;
 
     @GetMapping("list")
-    public Result queryTypeList() {
-        //List<ShopType> typeList = typeService
-        //        .query().orderByAsc("sort").list();
-        return typeService.queryTypeList();
+    public ResponseEntity<byte[]> queryTypeList() {
+        // 直接返回本地快照中序列化好的响应体
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(typeService.queryTypeListBody());
+    }
+
+    /**
+     * 新增店铺类型
+     * @param shopType 店铺类型
+     * @return 店铺类型id
+     */
+    @PostMapping
+    public Result saveType(@RequestBody ShopType shopType) {
+        return typeService.saveType(shopType);
+    }
+
+    /**
+     * 更新店铺类型
+     * @param shopType 店铺类型
+     * @return 无
+     */
+    @PutMapping
+    public Result updateType(@RequestBody ShopType shopType) {
+        return typeService.updateType(shopType);
     }
 }
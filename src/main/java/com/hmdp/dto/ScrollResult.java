@@ -4,6 +4,11 @@ import lombok.Data;
 
 import java.util.List;
 
+/**
+ * @Description 滚动分页结果，下一页以 minTime 作为 max、offset 作为偏移量查询
+ * @Date 2023-05-04-16-09
+ * @Author qianzhikang
+ */
 @Data
 public class ScrollResult {
     private List<?> list;
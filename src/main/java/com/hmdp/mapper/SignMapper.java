@@ -0,0 +1,23 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author qianzhikang
+ * @since 2023-05-30
+ */
+public interface SignMapper extends BaseMapper<Sign> {
+
+    /**
+     * 多行插入签到记录，一条 INSERT 语句写入整批
+     */
+    int insertBatch(@Param("signs") List<Sign> signs);
+}
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.time.LocalDate;
+
 /**
  * <p>
  *  服务类
@@ -50,10 +52,19 @@ public interface IBlogService extends IService<Blog> {
     Result saveBlog(Blog blog);
 
     /**
-     * 分页查询
-     * @param max 最大
-     * @param offset 偏移量
-     * @return Result
+     * 滚动分页查询关注推送
+     * @param max 上一页的最小时间戳
+     * @param offset 上一页中与最小时间戳相同的笔记数
+     * @return 滚动分页结果 {@link com.hmdp.dto.ScrollResult}
      */
     Result queryBlogOfFollow(Long max, Integer offset);
+
+    /**
+     * 统计笔记在日期范围内的独立访客数
+     * @param id 笔记id
+     * @param begin 开始日期（含）
+     * @param end 结束日期（含）
+     * @return 独立访客数
+     */
+    Result queryBlogUv(Long id, LocalDate begin, LocalDate end);
 }
@@ -0,0 +1,34 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.ScrollResult;
+
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ *  关注推送服务类
+ * </p>
+ *
+ * @author qianzhikang
+ * @since 2023-05-25
+ */
+public interface IFeedService {
+
+    /**
+     * 将笔记推送到作者所有粉丝的收件箱，异步执行，立即返回
+     * @param authorId 作者id
+     * @param blogId 笔记id
+     * @param createTime 发布时间，换算为毫秒时间戳作为收件箱中的分值，与重建收件箱时的计算方式一致
+     */
+    void push(Long authorId, Long blogId, LocalDateTime createTime);
+
+    /**
+     * 滚动分页查询关注推送，合并收件箱与关注的大V发件箱
+     * @param userId 用户id
+     * @param max 上一页的最小时间戳，第一页为当前时间
+     * @param offset 上一页中与最小时间戳相同的元素个数，第一页为 0
+     * @param count 每页数量
+     * @return list 为笔记id，没有更多数据时为空
+     */
+    ScrollResult queryFeed(Long userId, Long max, Integer offset, int count);
+}
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.time.LocalDate;
+
 /**
  * <p>
  *  服务类
@@ -16,4 +18,30 @@ public interface IShopService extends IService<Shop> {
     Result queryById(Long id);
 
     Result update(Shop shop);
+
+    /**
+     * 新增店铺，并加入所属类型的 GEO 集合
+     * @param shop 店铺
+     * @return 店铺id
+     */
+    Result saveShop(Shop shop);
+
+    /**
+     * 根据类型分页查询店铺，传入坐标时按距离由近到远排序
+     * @param typeId 店铺类型
+     * @param current 页码
+     * @param x 经度，可为空
+     * @param y 纬度，可为空
+     * @return 店铺列表
+     */
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 统计店铺在日期范围内的独立访客数
+     * @param id 店铺id
+     * @param begin 开始日期（含）
+     * @param end 结束日期（含）
+     * @return 独立访客数
+     */
+    Result queryShopUv(Long id, LocalDate begin, LocalDate end);
 }
@@ -15,4 +15,24 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryTypeList();
+
+    /**
+     * 查询店铺类型列表的响应体，为预先序列化好的 json
+     * @return 与 queryTypeList 序列化结果相同的字节
+     */
+    byte[] queryTypeListBody();
+
+    /**
+     * 新增店铺类型，并通知各节点刷新
+     * @param shopType 店铺类型
+     * @return 店铺类型id
+     */
+    Result saveType(ShopType shopType);
+
+    /**
+     * 更新店铺类型，并通知各节点刷新
+     * @param shopType 店铺类型
+     * @return 无
+     */
+    Result updateType(ShopType shopType);
 }
@@ -0,0 +1,34 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  签到服务类
+ * </p>
+ *
+ * @author qianzhikang
+ * @since 2023-05-30
+ */
+public interface ISignService extends IService<Sign> {
+
+    /**
+     * 当前用户今日签到
+     * @return Result
+     */
+    Result sign();
+
+    /**
+     * 当前用户截至今日的连续签到天数，今日未签到时从昨日开始计算
+     * @return 连续签到天数
+     */
+    Result signCount();
+
+    /**
+     * 当前用户本月的签到天数
+     * @return 本月签到天数
+     */
+    Result signMonthCount();
+}
@@ -5,31 +5,55 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
-import com.hmdp.dto.ScoreResult;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
+import com.hmdp.service.IFeedService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvCounter;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  * 服务实现类
@@ -38,17 +62,243 @@ import java.util.stream.Collectors;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
     @Resource
     private IUserService iUserService;
 
     @Resource
-    private IFollowService iFollowService;
+    private IFeedService iFeedService;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private UvCounter uvCounter;
+
+    /**
+     * 热门榜单的时间权重，每小时增加的分值，越新的笔记越靠前；为 0 时只按点赞数排序
+     */
+    @Value("${hmdp.blog.hot.time-weight:0}")
+    private double hotTimeWeight;
+
+    /**
+     * 点赞数写回数据库的间隔（秒）
+     */
+    @Value("${hmdp.blog.like.flush-interval-seconds:2}")
+    private long likeFlushIntervalSeconds;
+
+    /**
+     * 点赞/取消点赞脚本
+     */
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 热门榜单构建脚本
+     */
+    private static final DefaultRedisScript<Long> HOT_REBUILD_SCRIPT;
+
+    static {
+        HOT_REBUILD_SCRIPT = new DefaultRedisScript<>();
+        HOT_REBUILD_SCRIPT.setLocation(new ClassPathResource("hot_rebuild.lua"));
+        HOT_REBUILD_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 新笔记加入热门榜单脚本
+     */
+    private static final DefaultRedisScript<Long> HOT_ADD_SCRIPT;
+
+    static {
+        HOT_ADD_SCRIPT = new DefaultRedisScript<>();
+        HOT_ADD_SCRIPT.setLocation(new ClassPathResource("hot_add.lua"));
+        HOT_ADD_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 点赞数写回脚本
+     */
+    private static final DefaultRedisScript<List> LIKED_FLUSH_SCRIPT;
+
+    static {
+        LIKED_FLUSH_SCRIPT = new DefaultRedisScript<>();
+        LIKED_FLUSH_SCRIPT.setLocation(new ClassPathResource("liked_flush.lua"));
+        LIKED_FLUSH_SCRIPT.setResultType(List.class);
+    }
+
+    // 定时将点赞数写回数据库
+    private final ScheduledExecutorService LIKED_FLUSH_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    // 预取关注推送下一页，队列满时直接丢弃，不影响当前请求
+    private final ExecutorService FEED_PREFETCH_EXECUTOR = new ThreadPoolExecutor(2, 2,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1000), new ThreadPoolExecutor.DiscardPolicy());
+
+    @PostConstruct
+    public void initLikedFlush() {
+        LIKED_FLUSH_EXECUTOR.scheduleWithFixedDelay(this::flushLiked,
+                likeFlushIntervalSeconds, likeFlushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        FEED_PREFETCH_EXECUTOR.shutdown();
+        LIKED_FLUSH_EXECUTOR.shutdown();
+        flushLiked();
+    }
+
+    /**
+     * 将点赞数的增量累加到数据库。数据库中的点赞数可能包含点赞用户集合中没有的记录
+     * （redis 数据丢失或初始数据），不能用 ZCARD 覆盖。
+     * 多个节点通过锁互斥写回，写入成功后才从处理中的增量移除，中断后下次写回会重新处理
+     */
+    @SuppressWarnings("unchecked")
+    private void flushLiked() {
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, BLOG_LIKED_FLUSH_LOCK_NAME);
+        if (!lock.tryLock(BLOG_LIKED_FLUSH_LOCK_TTL)) {
+            // 其它节点正在写回或正在构建热门榜单
+            return;
+        }
+        try {
+            List<String> fields = stringRedisTemplate.execute(LIKED_FLUSH_SCRIPT,
+                    Arrays.asList(BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY));
+            if (fields == null || fields.isEmpty()) {
+                return;
+            }
+            for (int from = 0; from < fields.size(); from += BLOG_LIKED_FLUSH_BATCH_SIZE * 2) {
+                List<String> batch = fields.subList(from, Math.min(from + BLOG_LIKED_FLUSH_BATCH_SIZE * 2, fields.size()));
+                List<String> ids = new ArrayList<>(batch.size() / 2);
+                Map<Long, Long> deltas = new HashMap<>();
+                for (int i = 0; i < batch.size(); i += 2) {
+                    ids.add(batch.get(i));
+                    long delta = Long.parseLong(batch.get(i + 1));
+                    // 点赞后又取消的笔记不需要写回
+                    if (delta != 0) {
+                        deltas.put(Long.valueOf(batch.get(i)), delta);
+                    }
+                }
+                if (!deltas.isEmpty()) {
+                    // 一条语句批量更新，并删除笔记缓存
+                    getBaseMapper().incrLikedBatch(deltas);
+                    stringRedisTemplate.delete(deltas.keySet().stream().map(id -> CACHE_BLOG_KEY + id).collect(Collectors.toList()));
+                }
+                stringRedisTemplate.opsForHash().delete(BLOG_LIKED_FLUSHING_KEY, ids.toArray());
+            }
+        } catch (Exception e) {
+            log.error("点赞数写回数据库失败", e);
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    /**
+     * 启动时榜单未构建完成则从数据库构建。点赞和发布笔记会在构建期间写入榜单，
+     * 榜单 key 存在不代表已构建，以构建完成标记为准
+     */
+    @PostConstruct
+    public void initHotBlogs() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_READY_KEY))) {
+            return;
+        }
+        // 多个节点同时启动时只由一个节点构建
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, BLOG_HOT_LOCK_NAME);
+        if (!lock.tryLock(BLOG_HOT_LOCK_TTL)) {
+            return;
+        }
+        // 构建期间暂停点赞数写回，数据库中的点赞数与待写回的增量不会重复或遗漏
+        SimpleRedisLock flushLock = new SimpleRedisLock(stringRedisTemplate, BLOG_LIKED_FLUSH_LOCK_NAME);
+        try {
+            if (!waitLock(flushLock, BLOG_HOT_LOCK_TTL)) {
+                log.warn("等待点赞数写回超时，跳过热门笔记榜单构建");
+                return;
+            }
+            try {
+                rebuildHotBlogs();
+            } finally {
+                flushLock.unLock();
+            }
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    /**
+     * 在 BLOG_LIKED_FLUSH_LOCK_TTL 内重试获取锁，写回持有锁的时间不会超过该值
+     */
+    private static boolean waitLock(SimpleRedisLock lock, Long timeoutSec) {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(BLOG_LIKED_FLUSH_LOCK_TTL);
+        while (!lock.tryLock(timeoutSec)) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按 id 分批扫描笔记，写入临时 key 后整体替换榜单，调用方需持有写回锁。
+     * 构建期间的点赞与新笔记由脚本同步写入临时 key，替换时不会丢失
+     */
+    private void rebuildHotBlogs() {
+        stringRedisTemplate.delete(BLOG_HOT_REBUILDING_KEY);
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            List<Blog> blogs = query()
+                    .select("id", "liked", "create_time")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + BLOG_HOT_REBUILD_BATCH_SIZE)
+                    .list();
+            if (blogs.isEmpty()) {
+                break;
+            }
+            List<String> args = new ArrayList<>(blogs.size() * 3);
+            for (Blog blog : blogs) {
+                args.add(blog.getId().toString());
+                args.add(String.valueOf(blog.getLiked() == null ? 0 : blog.getLiked()));
+                args.add(String.valueOf(hotTimeScore(blog)));
+            }
+            stringRedisTemplate.execute(HOT_REBUILD_SCRIPT,
+                    Arrays.asList(BLOG_HOT_REBUILDING_KEY, BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY), args.toArray());
+            total += blogs.size();
+            lastId = blogs.get(blogs.size() - 1).getId();
+        }
+        if (total > 0) {
+            stringRedisTemplate.rename(BLOG_HOT_REBUILDING_KEY, BLOG_HOT_KEY);
+        }
+        stringRedisTemplate.opsForValue().set(BLOG_HOT_READY_KEY, "1");
+        log.info("热门笔记榜单构建完成，笔记数：{}", total);
+    }
+
+    /**
+     * 榜单分值：点赞数 + 发布时间加权
+     */
+    private double hotScore(Blog blog) {
+        double liked = blog.getLiked() == null ? 0 : blog.getLiked();
+        return liked + hotTimeScore(blog);
+    }
+
+    private double hotTimeScore(Blog blog) {
+        LocalDateTime createTime = blog.getCreateTime() == null ? LocalDateTime.now() : blog.getCreateTime();
+        return hotTimeWeight * createTime.toEpochSecond(ZoneOffset.UTC) / 3600;
+    }
+
     /**
      * 查询笔记
      *
@@ -57,16 +307,26 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
-        Blog blog = getById(id);
+        Blog blog = cacheClient.queryWithPassThrough(CACHE_BLOG_KEY, id, Blog.class, this::getById,
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
         if (blog == null) {
             return Result.fail("笔记不存在");
         }
-        queryBlogUser(blog);
-        // 查询用户是否点赞
-        isBlogLiked(blog);
+        // 记录独立访客
+        uvCounter.record(UV_BLOG_KEY, id);
+        // 查询笔记作者和用户是否点赞
+        fillBlogs(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
+    @Override
+    public Result queryBlogUv(Long id, LocalDate begin, LocalDate end) {
+        if (!UvCounter.isValidRange(begin, end)) {
+            return Result.fail("日期范围不正确");
+        }
+        return Result.ok(uvCounter.count(UV_BLOG_KEY, id, begin, end));
+    }
+
     /**
      * 查询热门笔记
      *
@@ -75,17 +335,26 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            queryBlogUser(blog);
-            isBlogLiked(blog);
-        });
+        // 从榜单查询当前页的笔记id
+        long start = (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<String> hotIds = stringRedisTemplate.opsForZSet()
+                .reverseRange(BLOG_HOT_KEY, start, start + SystemConstants.MAX_PAGE_SIZE - 1);
+        List<Blog> records;
+        if (hotIds != null && !hotIds.isEmpty()) {
+            // 批量查询笔记，按榜单顺序排列
+            List<Long> ids = hotIds.stream().map(Long::valueOf).collect(Collectors.toList());
+            records = queryBlogs(ids);
+        } else if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_READY_KEY))) {
+            // 榜单尚未构建，查询数据库
+            records = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE))
+                    .getRecords();
+        } else {
+            records = Collections.emptyList();
+        }
+        // 批量查询作者和点赞记录
+        fillBlogs(records);
         return Result.ok(records);
     }
 
@@ -97,26 +366,21 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result likeBlog(Long id) {
-        // 判断用户是否点赞
+        // 笔记不存在时不能执行脚本，否则榜单、点赞集合和待写回集合中会出现不存在的笔记
+        Blog blog = cacheClient.queryWithPassThrough(CACHE_BLOG_KEY, id, Blog.class, this::getById,
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        if (blog == null) {
+            return Result.fail("笔记不存在");
+        }
+        // 获取登录用户
         Long userId = UserHolder.getUser().getId();
         String key = RedisConstants.BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        if (score == null) {
-            // 未点赞
-            // 点赞
-            boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-            if (isSuccess) {
-                // 保存用户到redis
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
-            }
-        } else {
-            // 已点赞，取消点赞
-            boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
-            if (isSuccess) {
-                // 移除redis的set集合内用户id
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
-            }
-        }
+        // 执行lua脚本，原子地切换点赞状态、更新热门榜单并标记点赞数待写回，点赞数由定时任务写回数据库
+        stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(key, BLOG_HOT_KEY, BLOG_LIKED_DELTA_KEY, BLOG_HOT_REBUILDING_KEY),
+                id.toString(),
+                userId.toString(),
+                String.valueOf(System.currentTimeMillis()));
         return Result.ok();
     }
 
@@ -165,105 +429,136 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 获取登录用户
         UserDTO user = UserHolder.getUser();
         blog.setUserId(user.getId());
+        // 发布时间由应用生成并精确到秒，与数据库 timestamp 的精度一致，推送与重建收件箱的分值相同
+        blog.setCreateTime(LocalDateTime.now().withNano(0));
         // 保存探店博文
         save(blog);
-        // 查询粉丝id
-        List<Follow> follows = iFollowService.query().eq("follow_user_id", user.getId()).list();
-        // 推送消息
-        for (Follow follow : follows) {
-            // 推送
-            Long userId = follow.getUserId();
-            String key = "feed:" + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
+        // 加入热门榜单
+        blog.setLiked(0);
+        stringRedisTemplate.execute(HOT_ADD_SCRIPT, Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_REBUILDING_KEY),
+                String.valueOf(hotScore(blog)), blog.getId().toString());
+        // 异步推送到粉丝收件箱
+        iFeedService.push(user.getId(), blog.getId(), blog.getCreateTime());
         // 返回id
         return Result.ok(blog.getId());
     }
 
     /**
-     * 分页查询
+     * 滚动分页查询关注推送
      *
-     * @param max    最大
-     * @param offset 偏移量
+     * @param max    上一页的最小时间戳
+     * @param offset 上一页中与最小时间戳相同的笔记数
      * @return Result
      */
     @Override
+    @SuppressWarnings("unchecked")
     public Result queryBlogOfFollow(Long max, Integer offset) {
         // 获取当前用户
         Long userId = UserHolder.getUser().getId();
-        // 查询收件箱
-        String key = "feed:" + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(key, 0, max, offset, 3);
-        if (typedTuples == null || typedTuples.isEmpty()) {
-            return Result.ok();
+        // 查询收件箱与关注的大V发件箱
+        ScrollResult scrollResult = iFeedService.queryFeed(userId, max, offset, SystemConstants.FEED_PAGE_SIZE);
+        List<Long> ids = (List<Long>) scrollResult.getList();
+        if (ids.isEmpty()) {
+            return Result.ok(scrollResult);
         }
-        List<Long> ids = new ArrayList<>();
-        // 最小时间，第一次默认为0
-        long minTime = 0;
-        // 偏移量
-        int os = 1;
-        // 解析数据
-        for (ZSetOperations.TypedTuple<String> typedTuple : typedTuples) {
-            // 获取id
-            ids.add(Long.valueOf(typedTuple.getValue()));
-            // 获取分数(时间戳)
-            long time = typedTuple.getScore().longValue();
-            // 若最小时间戳有相等
-            if (time == minTime) {
-                // 偏移量++
-                os++;
-            }else {
-                // 最小时间重制
-                minTime = time;
-                // 重制偏移量
-                os = 1;
+        // 批量查询笔记缓存，按收件箱顺序排列
+        List<Blog> blogs = queryBlogs(ids);
+        // 批量查询笔记作者和点赞记录
+        fillBlogs(blogs);
+        scrollResult.setList(blogs);
+        // 预取下一页
+        Long minTime = scrollResult.getMinTime();
+        Integer os = scrollResult.getOffset();
+        FEED_PREFETCH_EXECUTOR.execute(() -> prefetchFeed(userId, minTime, os));
+        return Result.ok(scrollResult);
+    }
+
+    /**
+     * 将下一页的笔记与作者加载到缓存，用户滚动时直接命中
+     */
+    @SuppressWarnings("unchecked")
+    private void prefetchFeed(Long userId, Long max, Integer offset) {
+        try {
+            ScrollResult next = iFeedService.queryFeed(userId, max, offset, SystemConstants.FEED_PAGE_SIZE);
+            List<Blog> blogs = queryBlogs((List<Long>) next.getList());
+            if (!blogs.isEmpty()) {
+                queryBlogUsers(blogs);
             }
+        } catch (Exception e) {
+            log.warn("预取关注推送失败，用户id：{}", userId, e);
         }
-        // 将id集合转成 ，隔开的字符串
-        String idStr = StrUtil.join(",", ids);
-        // 按id顺序查询
-        List<Blog> blogs = query().in("id",ids).last("ORDER BY FIELD(id," + idStr + ")" ).list();
-        // 查询笔记作者和点赞记录
-        for (Blog blog : blogs) {
-            queryBlogUser(blog);
-            isBlogLiked(blog);
+    }
+
+    /**
+     * 批量查询笔记缓存
+     *
+     * @param ids 笔记id
+     * @return 按 ids 顺序排列，不存在的笔记不包含在内
+     */
+    private List<Blog> queryBlogs(List<Long> ids) {
+        return cacheClient.queryManyWithPassThrough(CACHE_BLOG_KEY, ids, Blog.class,
+                this::listByIds, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 批量填充笔记作者与当前用户的点赞状态，作者一次批量查询缓存，点赞状态一次 pipeline 查询
+     *
+     * @param blogs 笔记
+     */
+    private void fillBlogs(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
         }
-        // 封装滚动分页结果
-        ScoreResult scoreResult = new ScoreResult();
-        scoreResult.setList(blogs);
-        scoreResult.setMinTime(minTime);
-        scoreResult.setOffset(os);
-        return Result.ok(blogs);
+        queryBlogUsers(blogs);
+        isBlogsLiked(blogs);
     }
 
     /**
-     * 查询笔记作者
+     * 批量查询笔记作者
      *
-     * @param blog 笔记
+     * @param blogs 笔记
      */
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = iUserService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    private void queryBlogUsers(List<Blog> blogs) {
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = cacheClient.queryManyWithPassThrough(CACHE_USER_KEY, userIds, UserDTO.class,
+                        ids -> iUserService.listByIds(ids).stream()
+                                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                                .collect(Collectors.toList()),
+                        UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES)
+                .stream()
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 
     /**
-     * 查询用户是否点赞
+     * 批量查询用户是否点赞
      *
-     * @param blog
+     * @param blogs 笔记
      */
-    private void isBlogLiked(Blog blog) {
+    private void isBlogsLiked(List<Blog> blogs) {
         UserDTO user = UserHolder.getUser();
         if (user == null) {
             // 用户未登陆
             return;
         }
         // 判断用户是否点赞
-        Long userId = user.getId();
-        String key = "blog:key:" + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
+        String userId = user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
     }
 
 }
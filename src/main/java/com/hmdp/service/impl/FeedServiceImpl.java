@@ -0,0 +1,464 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.service.IFeedService;
+import com.hmdp.service.IFollowService;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ * 关注推送服务实现类，推拉结合：
+ * 普通作者发布笔记后由后台线程分批查询粉丝，每批通过一次 pipeline 写入粉丝收件箱并裁剪长度，
+ * 推送任务与进度（已推送到的关注记录id）保存在 redis 中，执行节点持有任务的所有权并定时续期，
+ * 失败或节点宕机后由定时任务抢占所有权并从断点继续；
+ * 粉丝数达到阈值的大V只写入自己的发件箱，读取时与收件箱多路归并，粉丝数回落后新笔记重新推送到收件箱，已有的发件箱继续归并。
+ * 收件箱读取时续期，长期未读的收件箱过期后不再接收推送，再次读取时从关注作者的最近笔记重建
+ * </p>
+ *
+ * @author qianzhikang
+ * @since 2023-05-25
+ */
+@Slf4j
+@Service
+public class FeedServiceImpl implements IFeedService {
+
+    @Resource
+    private IFollowService iFollowService;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 推送线程数
+     */
+    @Value("${hmdp.feed.fanout-threads:2}")
+    private int fanoutThreads;
+
+    /**
+     * 每批推送的粉丝数
+     */
+    @Value("${hmdp.feed.fanout-batch-size:1000}")
+    private int fanoutBatchSize;
+
+    /**
+     * 大V的粉丝数阈值，达到后只写发件箱
+     */
+    @Value("${hmdp.feed.big-v-threshold:5000}")
+    private int bigVThreshold;
+
+    /**
+     * 收件箱与发件箱保留的最大条数
+     */
+    @Value("${hmdp.feed.box-max-size:1000}")
+    private long boxMaxSize;
+
+    /**
+     * 收件箱的有效期（天），期间没有读取则过期
+     */
+    @Value("${hmdp.feed.inbox-ttl-days:7}")
+    private long inboxTtlDays;
+
+    // 执行推送任务的线程池
+    private ExecutorService feedFanoutExecutor;
+    // 定时恢复中断的推送任务
+    private final ScheduledExecutorService FANOUT_RECOVER_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    private static final DefaultRedisScript<Long> FEED_PUSH_SCRIPT;
+
+    static {
+        FEED_PUSH_SCRIPT = new DefaultRedisScript<>();
+        FEED_PUSH_SCRIPT.setLocation(new ClassPathResource("feed_push.lua"));
+        FEED_PUSH_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final Comparator<ZSetOperations.TypedTuple<String>> FEED_ORDER =
+            Comparator.comparing(ZSetOperations.TypedTuple<String>::getScore)
+                    .thenComparing(ZSetOperations.TypedTuple::getValue)
+                    .reversed();
+
+    /**
+     * 当前节点的标识，作为推送任务所有权的值
+     */
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    /**
+     * 当前节点正在执行的任务（笔记id）
+     */
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 累计推送的收件箱数与完成的任务数
+     */
+    private final AtomicLong pushedTotal = new AtomicLong();
+    private final AtomicLong completedTotal = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        feedFanoutExecutor = Executors.newFixedThreadPool(fanoutThreads);
+        FANOUT_RECOVER_EXECUTOR.scheduleWithFixedDelay(this::recoverTasks,
+                FEED_FANOUT_STALE_SECONDS, FEED_FANOUT_STALE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        FANOUT_RECOVER_EXECUTOR.shutdown();
+        feedFanoutExecutor.shutdown();
+    }
+
+    @Override
+    public void push(Long authorId, Long blogId, LocalDateTime createTime) {
+        long timestamp = feedScore(createTime);
+        // 大V只写入发件箱，由粉丝读取时拉取
+        int followers = iFollowService.query().eq("follow_user_id", authorId).count();
+        if (followers >= bigVThreshold) {
+            String outboxKey = FEED_OUTBOX_KEY + authorId;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.zAdd(outboxKey, timestamp, blogId.toString());
+                conn.zRemRange(outboxKey, 0, -boxMaxSize - 1);
+                conn.sAdd(FEED_BIG_V_KEY, authorId.toString());
+                return null;
+            });
+            return;
+        }
+        FanoutTask task = new FanoutTask();
+        task.setAuthorId(authorId);
+        task.setBlogId(blogId);
+        task.setTimestamp(timestamp);
+        task.setCursor(0L);
+        task.setUpdatedAt(System.currentTimeMillis());
+        // 先登记任务再执行，保证节点宕机后可以恢复
+        Map<String, String> taskMap = new HashMap<>();
+        BeanUtil.beanToMap(task).forEach((field, value) -> taskMap.put(field, value.toString()));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(FEED_FANOUT_TASK_KEY + blogId, taskMap);
+            conn.setEx(FEED_FANOUT_OWNER_KEY + blogId, FEED_FANOUT_OWNER_TTL, NODE_ID);
+            conn.sAdd(FEED_FANOUT_PENDING_KEY, blogId.toString());
+            return null;
+        });
+        submit(task);
+    }
+
+    /**
+     * 收件箱中的分值：发布时间的毫秒时间戳。推送与重建收件箱都由数据库中的发布时间换算，分值一致
+     */
+    private static long feedScore(LocalDateTime createTime) {
+        return createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private void submit(FanoutTask task) {
+        if (!running.add(task.getBlogId())) {
+            return;
+        }
+        try {
+            feedFanoutExecutor.execute(() -> {
+                try {
+                    fanout(task);
+                } catch (Exception e) {
+                    log.error("笔记推送中断，笔记id：{}，已推送到关注记录：{}", task.getBlogId(), task.getCursor(), e);
+                } finally {
+                    running.remove(task.getBlogId());
+                }
+            });
+        } catch (Exception e) {
+            running.remove(task.getBlogId());
+            log.error("提交推送任务失败，笔记id：{}", task.getBlogId(), e);
+        }
+    }
+
+    /**
+     * 按关注记录id分批推送，每批推送后保存进度
+     */
+    private void fanout(FanoutTask task) {
+        long begin = System.currentTimeMillis();
+        String blogId = task.getBlogId().toString();
+        String taskKey = FEED_FANOUT_TASK_KEY + blogId;
+        String ownerKey = FEED_FANOUT_OWNER_KEY + blogId;
+        long pushed = 0;
+        // 确保脚本已加载，批量推送时通过 EVALSHA 执行
+        byte[] script = FEED_PUSH_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.scriptLoad(script));
+        String sha = FEED_PUSH_SCRIPT.getSha1();
+        String timestamp = task.getTimestamp().toString();
+        String maxSize = String.valueOf(boxMaxSize);
+        while (true) {
+            List<Follow> follows = iFollowService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", task.getAuthorId())
+                    .gt("id", task.getCursor())
+                    .orderByAsc("id")
+                    .last("LIMIT " + fanoutBatchSize)
+                    .list();
+            if (follows.isEmpty()) {
+                break;
+            }
+            long cursor = follows.get(follows.size() - 1).getId();
+            // 一次 pipeline 写入本批粉丝的收件箱，并保存进度
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Follow follow : follows) {
+                    conn.evalSha(sha, ReturnType.INTEGER, 1,
+                            FEED_KEY + follow.getUserId(), timestamp, blogId, maxSize);
+                }
+                conn.hSet(taskKey, "cursor", String.valueOf(cursor));
+                conn.hSet(taskKey, "updatedAt", String.valueOf(System.currentTimeMillis()));
+                conn.expire(ownerKey, FEED_FANOUT_OWNER_TTL);
+                return null;
+            });
+            task.setCursor(cursor);
+            pushed += follows.size();
+            if (follows.size() < fanoutBatchSize) {
+                break;
+            }
+        }
+        // 推送完成，删除任务
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.del(taskKey);
+            conn.del(ownerKey);
+            conn.sRem(FEED_FANOUT_PENDING_KEY, blogId);
+            return null;
+        });
+        long cost = Math.max(System.currentTimeMillis() - begin, 1);
+        log.info("笔记推送完成，笔记id：{}，粉丝数：{}，耗时：{} ms，速率：{} 个/秒，累计推送：{}，累计任务：{}",
+                blogId, pushed, cost, pushed * 1000 / cost,
+                pushedTotal.addAndGet(pushed), completedTotal.incrementAndGet());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ScrollResult queryFeed(Long userId, Long max, Integer offset, int count) {
+        // 收件箱与关注的大V发件箱
+        String inboxKey = FEED_KEY + userId;
+        List<String> keys = new ArrayList<>();
+        keys.add(inboxKey);
+        Set<String> bigVs = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FEED_BIG_V_KEY);
+        if (bigVs != null) {
+            bigVs.forEach(bigV -> keys.add(FEED_OUTBOX_KEY + bigV));
+        }
+        // 一次 pipeline 从每个来源读取足够的数据，被跳过的元素可能都来自同一个来源
+        long limit = offset + count;
+        long ttlSeconds = TimeUnit.DAYS.toSeconds(inboxTtlDays);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, limit);
+            }
+            // 读取时续期收件箱
+            conn.expire(inboxKey, ttlSeconds);
+            return null;
+        });
+        if (!Boolean.TRUE.equals(results.get(keys.size()))) {
+            // 收件箱已过期，重建后重新读取
+            rebuildInbox(userId, bigVs);
+            results.set(0, stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(inboxKey, 0, max, 0, limit));
+        }
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            merged.addAll((Set<ZSetOperations.TypedTuple<String>>) results.get(i));
+        }
+        return page(merged, max, offset, count);
+    }
+
+    /**
+     * 多路归并各来源的数据并截取一页
+     *
+     * @param merged 各来源分值不大于 max 的数据
+     */
+    static ScrollResult page(List<ZSetOperations.TypedTuple<String>> merged, long max, int offset, int count) {
+        // 按分值倒序，分值相同按 id 倒序，与 ZREVRANGEBYSCORE 的顺序一致
+        merged.sort(FEED_ORDER);
+        // 跳过上一页已返回的、分值等于 max 的元素
+        int from = 0;
+        while (from < merged.size() && from < offset && merged.get(from).getScore().longValue() == max) {
+            from++;
+        }
+        List<ZSetOperations.TypedTuple<String>> page = merged.subList(from, Math.min(from + count, merged.size()));
+        ScrollResult scrollResult = new ScrollResult();
+        List<Long> ids = new ArrayList<>(page.size());
+        // 最小时间与其出现次数
+        long minTime = max;
+        int os = offset;
+        for (ZSetOperations.TypedTuple<String> tuple : page) {
+            ids.add(Long.valueOf(tuple.getValue()));
+            long time = tuple.getScore().longValue();
+            if (time == minTime) {
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        scrollResult.setList(ids);
+        scrollResult.setMinTime(minTime);
+        scrollResult.setOffset(os);
+        return scrollResult;
+    }
+
+    /**
+     * 从关注的作者最近发布的笔记重建收件箱，
+     * 并写入一个分值为 -1 的占位元素，没有任何笔记时也能区分收件箱是否存在，查询范围从 0 开始不会读到它
+     */
+    private void rebuildInbox(Long userId, Set<String> bigVs) {
+        List<Long> authorIds = iFollowService.query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .list()
+                .stream()
+                .map(Follow::getFollowUserId)
+                .collect(Collectors.toList());
+        Set<String> outboxed = outboxBlogIds(bigVs);
+        // 多查询发件箱中的笔记数，排除后仍有 boxMaxSize 条
+        List<Blog> blogs = authorIds.isEmpty() ? Collections.emptyList() : inboxBlogs(blogMapper.selectList(
+                new QueryWrapper<Blog>()
+                        .select("id", "create_time")
+                        .in("user_id", authorIds)
+                        .orderByDesc("id")
+                        .last("LIMIT " + (boxMaxSize + outboxed.size()))), outboxed, boxMaxSize);
+        String inboxKey = FEED_KEY + userId;
+        long ttlSeconds = TimeUnit.DAYS.toSeconds(inboxTtlDays);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zAdd(inboxKey, FEED_PLACEHOLDER_SCORE, FEED_PLACEHOLDER);
+            for (Blog blog : blogs) {
+                conn.zAdd(inboxKey, feedScore(blog.getCreateTime()), blog.getId().toString());
+            }
+            conn.expire(inboxKey, ttlSeconds);
+            return null;
+        });
+        log.info("重建收件箱，用户id：{}，关注作者数：{}，笔记数：{}", userId, authorIds.size(), blogs.size());
+    }
+
+    /**
+     * 关注的大V发件箱中的全部笔记id
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> outboxBlogIds(Set<String> bigVs) {
+        if (bigVs == null || bigVs.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String bigV : bigVs) {
+                conn.zRange(FEED_OUTBOX_KEY + bigV, 0, -1);
+            }
+            return null;
+        });
+        Set<String> ids = new HashSet<>();
+        results.forEach(result -> ids.addAll((Set<String>) result));
+        return ids;
+    }
+
+    /**
+     * 重建收件箱时写入的笔记。feed:bigv 记录的是有发件箱的作者，粉丝数降到阈值以下后不会移除，
+     * 只排除发件箱中实际存在的笔记（读取时归并），成为大V之前和降级之后推送到收件箱的笔记仍然写入
+     *
+     * @param blogs    关注作者的笔记，按 id 倒序
+     * @param outboxed 发件箱中的笔记id
+     */
+    static List<Blog> inboxBlogs(List<Blog> blogs, Set<String> outboxed, long maxSize) {
+        return blogs.stream()
+                .filter(blog -> !outboxed.contains(blog.getId().toString()))
+                .limit(maxSize)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 恢复超过 FEED_FANOUT_STALE_SECONDS 没有进度的任务，包括其它节点宕机遗留的任务。
+     * 本节点持有的任务（包括排队中尚未开始的）续期所有权；其它任务通过 SET NX 抢占所有权后才提交，
+     * 多个节点同时恢复时只有一个节点执行，所有权过期说明持有的节点已宕机
+     */
+    private void recoverTasks() {
+        try {
+            Set<String> blogIds = stringRedisTemplate.opsForSet().members(FEED_FANOUT_PENDING_KEY);
+            if (blogIds == null) {
+                return;
+            }
+            long staleBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(FEED_FANOUT_STALE_SECONDS);
+            for (String blogId : blogIds) {
+                String ownerKey = FEED_FANOUT_OWNER_KEY + blogId;
+                if (running.contains(Long.valueOf(blogId))) {
+                    stringRedisTemplate.expire(ownerKey, FEED_FANOUT_OWNER_TTL, TimeUnit.SECONDS);
+                    continue;
+                }
+                Map<Object, Object> taskMap = stringRedisTemplate.opsForHash().entries(FEED_FANOUT_TASK_KEY + blogId);
+                if (taskMap.isEmpty()) {
+                    stringRedisTemplate.opsForSet().remove(FEED_FANOUT_PENDING_KEY, blogId);
+                    continue;
+                }
+                FanoutTask task = BeanUtil.fillBeanWithMap(taskMap, new FanoutTask(), false);
+                if (task.getUpdatedAt() >= staleBefore) {
+                    continue;
+                }
+                // 本节点执行失败的任务仍由本节点持有，可以直接重试
+                Boolean claimed = stringRedisTemplate.opsForValue()
+                        .setIfAbsent(ownerKey, NODE_ID, FEED_FANOUT_OWNER_TTL, TimeUnit.SECONDS);
+                if (Boolean.TRUE.equals(claimed) || NODE_ID.equals(stringRedisTemplate.opsForValue().get(ownerKey))) {
+                    log.info("恢复推送任务，笔记id：{}，从关注记录 {} 继续", blogId, task.getCursor());
+                    submit(task);
+                }
+            }
+        } catch (Exception e) {
+            log.error("恢复推送任务失败", e);
+        }
+    }
+
+    /**
+     * 推送任务
+     */
+    @Data
+    private static class FanoutTask {
+        private Long authorId;
+        private Long blogId;
+        private Long timestamp;
+        /**
+         * 已推送到的关注记录id
+         */
+        private Long cursor;
+        private Long updatedAt;
+    }
+}
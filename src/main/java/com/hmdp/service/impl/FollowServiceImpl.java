@@ -21,6 +21,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+
 /**
  * <p>
  * 服务实现类
@@ -49,7 +51,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result follow(Long id, Boolean isFollow) {
         // 1. 获取用户id
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
+        String key = FOLLOWS_KEY + userId;
         // 2. 判断为关注还是取关
         if (isFollow) {
             // 关注 -> 新增
@@ -93,8 +95,8 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     @Override
     public Result followCommons(Long id) {
         Long userId = UserHolder.getUser().getId();
-        String key1 = "follows:" + userId;
-        String key2 = "follows:" + id;
+        String key1 = FOLLOWS_KEY + userId;
+        String key2 = FOLLOWS_KEY + id;
         // 使用 redis 的 intersect 求交集
         Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key1, key2);
         if (CollectionUtil.isEmpty(intersect)) {
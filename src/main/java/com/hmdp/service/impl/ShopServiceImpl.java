@@ -1,10 +1,10 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
@@ -12,16 +12,42 @@ import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UvCounter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -33,6 +59,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author qzk
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -42,6 +69,72 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private UvCounter uvCounter;
+
+    /**
+     * 附近店铺的搜索半径（米）
+     */
+    @Value("${hmdp.shop.nearby-radius-meters:5000}")
+    private double nearbyRadiusMeters;
+
+    @PostConstruct
+    public void init() {
+        // 店铺详情开启本地一级缓存
+        cacheClient.enableLocalCache(CACHE_SHOP_KEY, LOCAL_CACHE_SHOP_SIZE, LOCAL_CACHE_SHOP_TTL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 启动时将店铺坐标加载到按类型划分的 GEO 集合，GEOADD 为覆盖写入，重复加载结果相同
+     */
+    @PostConstruct
+    public void initShopGeo() {
+        // 多个节点同时启动时只由一个节点加载
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, SHOP_GEO_LOCK_NAME);
+        if (!lock.tryLock(SHOP_GEO_LOCK_TTL)) {
+            return;
+        }
+        try {
+            loadShopGeo();
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    /**
+     * 按 id 分批扫描店铺，每批通过一次 pipeline 写入
+     */
+    private void loadShopGeo() {
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            List<Shop> shops = query()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + SHOP_GEO_LOAD_BATCH_SIZE)
+                    .list();
+            if (shops.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Shop shop : shops) {
+                    if (shop.getX() != null && shop.getY() != null) {
+                        conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                    }
+                }
+                return null;
+            });
+            total += shops.size();
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        log.info("店铺坐标加载完成，店铺数：{}", total);
+    }
+
     /**
      * 按id查询
      *
@@ -52,19 +145,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     public Result queryById(Long id) {
         // 缓存穿透解决方案
         //Shop shop = queryWithPassThrough(id);
-        // 互斥锁解决缓存击穿
-        //Shop shop = queryWithMutex(id);
         // 逻辑过期解决缓存击穿
         //Shop shop = queryWithLogicalExpire(id);
 
         // 缓存穿透解决方案 使用封装工具类
         //Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
+        // 互斥锁解决缓存击穿 使用封装工具类（节点内请求合并）
+        //Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
         // 逻辑过期解决缓存击穿 使用封装工具类
         Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("店铺不存在");
         }
+        // 记录独立访客
+        uvCounter.record(UV_SHOP_KEY, id);
         return Result.ok(shop);
     }
 
@@ -81,13 +177,136 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("店铺不存在");
         }
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail("店铺不存在");
+        }
         // 更新数据库
         updateById(shop);
-        // 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 删除缓存，同时通知各节点清除本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
+        // 类型或坐标变化时同步 GEO 集合与各节点的坐标索引
+        // 与删除缓存一样在事务提交后执行，回滚时不会写入未提交的坐标
+        Shop current = getById(id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    syncShopGeo(old, current);
+                }
+            });
+        } else {
+            syncShopGeo(old, current);
+        }
         return Result.ok();
     }
 
+    private void syncShopGeo(Shop old, Shop current) {
+        boolean typeChanged = !Objects.equals(old.getTypeId(), current.getTypeId());
+        if (typeChanged) {
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId(), current.getId().toString());
+        }
+        if (typeChanged || !Objects.equals(old.getX(), current.getX()) || !Objects.equals(old.getY(), current.getY())) {
+            addShopGeo(current);
+            shopGeoIndex.publish(current);
+        }
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        save(shop);
+        addShopGeo(shop);
+        shopGeoIndex.publish(shop);
+        return Result.ok(shop.getId());
+    }
+
+    private void addShopGeo(Shop shop) {
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(),
+                new Point(shop.getX(), shop.getY()), shop.getId().toString());
+    }
+
+    /**
+     * 根据类型分页查询店铺，传入坐标时通过 GEORADIUS 按距离排序，店铺详情从缓存批量读取
+     */
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        if (x == null || y == null) {
+            // 不需要按距离排序，按类型分页查询数据库
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        // 查询前 end 条，按距离升序；优先查询进程内索引，未就绪时查询 redis GEO
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        Map<Long, Double> nearby = shopGeoIndex.isReady()
+                ? nearbyFromIndex(typeId, x, y, end)
+                : nearbyFromRedis(typeId, x, y, end);
+        if (nearby.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 跳过前几页
+        List<Long> ids = new ArrayList<>(nearby.keySet()).subList(from, nearby.size());
+        // 批量查询店铺缓存，再设置距离
+        List<Shop> shops = queryShops(ids);
+        shops.forEach(shop -> shop.setDistance(nearby.get(shop.getId())));
+        return Result.ok(shops);
+    }
+
+
+    @Override
+    public Result queryShopUv(Long id, LocalDate begin, LocalDate end) {
+        if (!UvCounter.isValidRange(begin, end)) {
+            return Result.fail("日期范围不正确");
+        }
+        return Result.ok(uvCounter.count(UV_SHOP_KEY, id, begin, end));
+    }
+
+    /**
+     * @return 店铺id -> 距离，按距离升序
+     */
+    private Map<Long, Double> nearbyFromIndex(Integer typeId, double x, double y, int count) {
+        Map<Long, Double> nearby = new LinkedHashMap<>(count);
+        for (ShopGeoIndex.Hit hit : shopGeoIndex.nearest(typeId.longValue(), x, y, count, nearbyRadiusMeters)) {
+            nearby.put(hit.getId(), hit.getDistance());
+        }
+        return nearby;
+    }
+
+    /**
+     * @return 店铺id -> 距离，按距离升序
+     */
+    private Map<Long, Double> nearbyFromRedis(Integer typeId, double x, double y, int count) {
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                SHOP_GEO_KEY + typeId,
+                new Circle(new Point(x, y), new Distance(nearbyRadiusMeters)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(count));
+        Map<Long, Double> nearby = new LinkedHashMap<>(count);
+        if (results != null) {
+            for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results) {
+                nearby.put(Long.valueOf(result.getContent().getName()), result.getDistance().getValue());
+            }
+        }
+        return nearby;
+    }
+
+    /**
+     * 批量查询店铺缓存，redis 不可用时直接查询数据库
+     */
+    private List<Shop> queryShops(List<Long> ids) {
+        try {
+            return cacheClient.queryManyWithLogicalExpire(CACHE_SHOP_KEY, ids, Shop.class,
+                    this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            log.warn("批量查询店铺缓存失败，改为查询数据库", e);
+            Map<Long, Shop> shops = listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+            return ids.stream().map(shops::get).filter(Objects::nonNull).collect(Collectors.toList());
+        }
+    }
 
     /**
      * 逻辑过期存储店铺信息
@@ -157,61 +376,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
-    /**
-     * 查询店铺（互斥锁解决缓存击穿）
-     *
-     * @param id 店铺id
-     * @return
-     */
-    private Shop queryWithMutex(Long id) {
-        // 1.查询缓存
-        String key = CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 存在 -> 返回
-        if (StrUtil.isNotBlank(shopJson)) {
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return shop;
-        }
-        // 判断是否命中空值
-        if (shopJson != null) {
-            return null;
-        }
-        Shop shop = null;
-        try {
-            // 执行缓存重建
-            // 获取互斥锁
-            boolean isLock = tryLock(LOCK_SHOP_KEY + id);
-            if (!isLock) {
-                Thread.sleep(50);
-                // double check 保证一致性
-                shopJson = stringRedisTemplate.opsForValue().get(key);
-                if (StrUtil.isNotBlank(shopJson)) {
-                    shop = JSONUtil.toBean(shopJson, Shop.class);
-                    return shop;
-                }
-                return queryWithMutex(id);
-            }
-            // 2. 不存在 -> 查询数据库
-            shop = getById(id);
-            // 不存在 -> 返回
-            if (shop == null) {
-                // 缓存空对象
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-            // 存在写入redis 添加过期时间
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            unlock(LOCK_SHOP_KEY + id);
-        }
-
-        // 返回
-        return shop;
-    }
-
-
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
     /**
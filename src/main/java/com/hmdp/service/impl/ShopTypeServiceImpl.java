@@ -1,55 +1,190 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.collection.CollectionUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import org.springframework.data.redis.core.RedisTemplate;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_CHANGED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_VERSION_KEY;
 
 /**
  * <p>
  * 服务实现类
+ * 店铺类型列表以不可变快照保存在每个节点，快照中包含预先序列化好的响应体，查询时不访问 redis 也不做序列化。
+ * 类型变更时递增 redis 中的版本号并广播，各节点收到通知或定时轮询发现版本变化后从数据库重新加载
  * </p>
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
-public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
+public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService, MessageListener {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    /**
+     * 版本号的轮询间隔（秒），兜底丢失的变更通知
+     */
+    @Value("${hmdp.shop-type.version-poll-seconds:5}")
+    private long versionPollSeconds;
+
+    private volatile Snapshot snapshot;
+
+    // 定时检查版本号
+    private final ScheduledExecutorService TYPE_VERSION_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SHOP_TYPE_CHANGED_CHANNEL));
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("加载店铺类型失败", e);
+        }
+        TYPE_VERSION_EXECUTOR.scheduleWithFixedDelay(this::checkVersion, versionPollSeconds, versionPollSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        TYPE_VERSION_EXECUTOR.shutdown();
+    }
+
     @Override
     public Result queryTypeList() {
-        // 查缓存
-        String listJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
-        // 查到 -> 返回
-        if (StrUtil.isNotBlank(listJson)) {
-            List<ShopType> shopTypes = JSONUtil.toList(listJson, ShopType.class);
-            return Result.ok(shopTypes);
+        return Result.ok(currentSnapshot().types);
+    }
+
+    @Override
+    public byte[] queryTypeListBody() {
+        return currentSnapshot().body;
+    }
+
+    @Override
+    public Result saveType(ShopType shopType) {
+        save(shopType);
+        bumpVersion();
+        return Result.ok(shopType.getId());
+    }
+
+    @Override
+    public Result updateType(ShopType shopType) {
+        if (shopType.getId() == null) {
+            return Result.fail("店铺类型不存在");
+        }
+        updateById(shopType);
+        bumpVersion();
+        return Result.ok();
+    }
+
+    /**
+     * 递增版本号并通知所有节点
+     */
+    private void bumpVersion() {
+        Long version = stringRedisTemplate.opsForValue().increment(SHOP_TYPE_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(SHOP_TYPE_CHANGED_CHANNEL, String.valueOf(version));
+    }
+
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            // 启动时加载失败，查询时再加载一次
+            current = refresh();
         }
-        // 查不到 -> 数据库查询
-        List<ShopType> list = query().list();
-        // 添加缓存
-        if (CollectionUtil.isNotEmpty(list)) {
-            String jsonStr = JSONUtil.toJsonStr(list);
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, jsonStr);
+        return current;
+    }
+
+    private void checkVersion() {
+        try {
+            Snapshot current = snapshot;
+            if (current == null || current.version != readVersion()) {
+                refresh();
+            }
+        } catch (Exception e) {
+            log.error("检查店铺类型版本失败", e);
         }
-        // 返回
-        return Result.ok(list);
+    }
+
+    /**
+     * 先读版本号再查询数据库，加载期间发生的变更会在下次检查时重新加载
+     */
+    private synchronized Snapshot refresh() {
+        long version = readVersion();
+        List<ShopType> types = query().orderByAsc("sort").list();
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化店铺类型失败", e);
+        }
+        Snapshot loaded = new Snapshot(version, Collections.unmodifiableList(types), body);
+        snapshot = loaded;
+        log.info("店铺类型快照已加载，版本：{}，类型数：{}", version, types.size());
+        return loaded;
+    }
+
+    private long readVersion() {
+        String version = stringRedisTemplate.opsForValue().get(SHOP_TYPE_VERSION_KEY);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        long version = Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8));
+        Snapshot current = snapshot;
+        if (current != null && current.version >= version) {
+            return;
+        }
+        TYPE_VERSION_EXECUTOR.execute(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                log.error("加载店铺类型失败", e);
+            }
+        });
+    }
+
+    /**
+     * 店铺类型快照，创建后不再修改
+     */
+    @AllArgsConstructor
+    private static class Snapshot {
+        private final long version;
+        private final List<ShopType> types;
+        /**
+         * 序列化好的响应体 {"success":true,"data":[...]}
+         */
+        private final byte[] body;
     }
 }
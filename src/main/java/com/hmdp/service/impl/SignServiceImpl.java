@@ -0,0 +1,261 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ * 签到服务实现类
+ * 每个用户每月一个位图 sign:{userId}:{yyyyMM}，第 n 位表示当月第 n+1 天是否签到；
+ * 连续签到天数通过 BITFIELD 一次读出整月，再用位运算统计末尾连续的 1。
+ * 月份结束后由定时任务扫描上月位图，批量写入 tb_sign，位图保留 USER_SIGN_RETENTION_DAYS 天供跨月统计
+ * </p>
+ *
+ * @author qianzhikang
+ * @since 2023-05-30
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SignServiceImpl signServiceImpl;
+
+    // 定时归档上月签到记录
+    private final ScheduledExecutorService SIGN_ARCHIVE_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init() {
+        SIGN_ARCHIVE_EXECUTOR.scheduleWithFixedDelay(this::archiveLastMonth, 1, 60, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        SIGN_ARCHIVE_EXECUTOR.shutdown();
+    }
+
+    @Override
+    public Result sign() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        String key = signKey(userId, YearMonth.from(today));
+        stringRedisTemplate.opsForValue().setBit(key, today.getDayOfMonth() - 1, true);
+        return Result.ok();
+    }
+
+    @Override
+    public Result signCount() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        YearMonth month = YearMonth.from(today);
+        int days = today.getDayOfMonth();
+        // 最低位为今天
+        long bits = monthBits(userId, month, days);
+        if ((bits & 1) == 0) {
+            // 今日未签到，从昨日开始计算
+            bits >>>= 1;
+            days--;
+        }
+        int streak = trailingOnes(bits, days);
+        int total = streak;
+        // 连续签到一直延续到月初时继续统计上月
+        while (streak == days) {
+            month = month.minusMonths(1);
+            days = month.lengthOfMonth();
+            streak = trailingOnes(monthBits(userId, month, days), days);
+            total += streak;
+        }
+        return Result.ok(total);
+    }
+
+    @Override
+    public Result signMonthCount() {
+        Long userId = UserHolder.getUser().getId();
+        byte[] key = signKey(userId, YearMonth.now()).getBytes(StandardCharsets.UTF_8);
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(key));
+        return Result.ok(count == null ? 0 : count);
+    }
+
+    /**
+     * 读取当月前 days 天的签到位，第 1 天为最高位
+     */
+    private long monthBits(Long userId, YearMonth month, int days) {
+        if (days <= 0) {
+            return 0;
+        }
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(signKey(userId, month),
+                BitFieldSubCommands.create().get(BitFieldSubCommands.BitFieldType.unsigned(days)).valueAt(0));
+        if (result == null || result.isEmpty() || result.get(0) == null) {
+            return 0;
+        }
+        return result.get(0);
+    }
+
+    /**
+     * 末尾连续 1 的个数，即取反后末尾 0 的个数，不超过 days
+     */
+    static int trailingOnes(long bits, int days) {
+        return Math.min(Long.numberOfTrailingZeros(~bits), days);
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+
+    /**
+     * 归档上月签到记录，每月只由一个节点执行一次
+     */
+    private void archiveLastMonth() {
+        YearMonth month = YearMonth.now().minusMonths(1);
+        String doneKey = USER_SIGN_ARCHIVED_KEY + month.format(MONTH_FORMATTER);
+        try {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(doneKey))) {
+                return;
+            }
+            SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, USER_SIGN_ARCHIVE_LOCK_NAME);
+            if (!lock.tryLock(USER_SIGN_ARCHIVE_LOCK_TTL)) {
+                return;
+            }
+            try {
+                if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(doneKey))) {
+                    return;
+                }
+                long begin = System.currentTimeMillis();
+                int users = archive(month);
+                stringRedisTemplate.opsForValue().set(doneKey, String.valueOf(users), USER_SIGN_ARCHIVED_TTL, TimeUnit.DAYS);
+                log.info("签到记录归档完成，月份：{}，用户数：{}，耗时：{} ms", month, users, System.currentTimeMillis() - begin);
+            } finally {
+                lock.unLock();
+            }
+        } catch (Exception e) {
+            log.error("签到记录归档失败，月份：{}", month, e);
+        }
+    }
+
+    /**
+     * SCAN 上月的位图，分批归档
+     *
+     * @return 归档的用户数
+     */
+    private int archive(YearMonth month) throws IOException {
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(USER_SIGN_KEY + "*:" + month.format(MONTH_FORMATTER))
+                .count(USER_SIGN_ARCHIVE_BATCH_SIZE)
+                .build();
+        int total = 0;
+        List<String> keys = new ArrayList<>(USER_SIGN_ARCHIVE_BATCH_SIZE);
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(connection -> connection.scan(options))) {
+            while (cursor.hasNext()) {
+                String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                // 跳过 sign:archived:{yyyyMM} 等非用户位图
+                if (!StrUtil.isNumeric(StrUtil.subBetween(key, USER_SIGN_KEY, ":"))) {
+                    continue;
+                }
+                keys.add(key);
+                if (keys.size() >= USER_SIGN_ARCHIVE_BATCH_SIZE) {
+                    archiveKeys(month, keys);
+                    total += keys.size();
+                    keys.clear();
+                }
+            }
+        }
+        if (!keys.isEmpty()) {
+            archiveKeys(month, keys);
+            total += keys.size();
+        }
+        return total;
+    }
+
+    /**
+     * 一次 pipeline 读取一批位图，转换为签到记录后批量写入，最后设置位图的保留时间
+     */
+    private void archiveKeys(YearMonth month, List<String> keys) {
+        List<Object> bitmaps = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.get(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        List<Long> userIds = new ArrayList<>(keys.size());
+        List<Sign> signs = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Long userId = Long.valueOf(StrUtil.subBetween(keys.get(i), USER_SIGN_KEY, ":"));
+            userIds.add(userId);
+            byte[] bitmap = (byte[]) bitmaps.get(i);
+            if (bitmap == null) {
+                continue;
+            }
+            // 位图中第 n 位位于第 n / 8 个字节，从高位开始
+            int days = Math.min(bitmap.length * 8, month.lengthOfMonth());
+            for (int n = 0; n < days; n++) {
+                if ((bitmap[n >> 3] & (0x80 >>> (n & 7))) != 0) {
+                    signs.add(new Sign()
+                            .setUserId(userId)
+                            .setYear(month.getYear())
+                            .setMonth(month.getMonthValue())
+                            .setDate(month.atDay(n + 1))
+                            .setIsBackup(false));
+                }
+            }
+        }
+        signServiceImpl.saveArchived(month, userIds, signs);
+        long seconds = TimeUnit.DAYS.toSeconds(USER_SIGN_RETENTION_DAYS);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.expire(key.getBytes(StandardCharsets.UTF_8), seconds);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 先删除这批用户当月已归档的记录再写入，中断后重新归档结果相同
+     */
+    @Transactional
+    public void saveArchived(YearMonth month, List<Long> userIds, List<Sign> signs) {
+        remove(new QueryWrapper<Sign>()
+                .eq("year", month.getYear())
+                .eq("month", month.getMonthValue())
+                .in("user_id", userIds));
+        if (!signs.isEmpty()) {
+            getBaseMapper().insertBatch(signs);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.ThreadUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -8,24 +11,55 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import com.hmdp.utils.SeckillStockShards;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.Record;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.*;
 
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  * 服务实现类
@@ -53,6 +87,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private VoucherOrderServiceImpl voucherOrderServiceImpl;
 
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private SeckillSoldOutFlags seckillSoldOutFlags;
+
     /**
      * lua解锁脚本
      */
@@ -65,44 +105,355 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    // 秒杀订单入库的执行队列
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
+    /**
+     * 分片库存秒杀脚本
+     */
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+
+    static {
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 每个节点的消费线程数
+     */
+    @Value("${hmdp.seckill.consumer-threads:2}")
+    private int consumerThreads;
+
+    /**
+     * 每批最多入库的订单数
+     */
+    @Value("${hmdp.seckill.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 凑批的最长等待时间（毫秒），读到第一条订单后开始计时
+     */
+    @Value("${hmdp.seckill.batch-wait-millis:50}")
+    private long batchWaitMillis;
+
+    /**
+     * 当前节点的消费者名称前缀
+     */
+    private static final String CONSUMER_PREFIX = UUID.randomUUID().toString(true) + "-";
+
     // 执行秒杀订单入库的线程池
-    private final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private ExecutorService seckillOrderExecutor;
+    // 定时认领其它消费者长时间未确认的订单
+    private final ScheduledExecutorService PENDING_RECLAIM_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    private volatile boolean running = true;
+
+    /**
+     * 需要消费的订单队列：stream.orders 与已登记的分片秒杀券的各分片队列，定时刷新
+     */
+    private volatile List<String> streamKeys = Collections.singletonList(SECKILL_ORDER_STREAM_KEY);
 
-    // 处理秒杀订单业务入库的具体任务
+    // 处理秒杀订单业务入库的具体任务，一次 XREADGROUP 阻塞读取分配给当前线程的全部队列
     private class VoucherOrderHandle implements Runnable {
+        private final String consumerName;
+        // 线程序号与线程数，用于分配队列
+        private final int index;
+        private final int threads;
+
+        private VoucherOrderHandle(String consumerName, int index, int threads) {
+            this.consumerName = consumerName;
+            this.index = index;
+            this.threads = threads;
+        }
+
         @Override
         public void run() {
-            while (true) {
+            while (running) {
                 try {
-                    VoucherOrder voucherOrder = orderTasks.take();
-                    handlerVoucherOrder(voucherOrder);
+                    // 每轮重新分配，队列列表刷新后自动生效
+                    List<String> keys = assignStreamKeys(streamKeys, index, threads);
+                    List<MapRecord<String, Object, Object>> records = readBatch(keys, consumerName);
+                    if (records.isEmpty()) {
+                        continue;
+                    }
+                    // 按队列分组处理与确认
+                    Map<String, List<MapRecord<String, Object, Object>>> recordsOfStream = new LinkedHashMap<>();
+                    for (MapRecord<String, Object, Object> record : records) {
+                        recordsOfStream.computeIfAbsent(record.getStream(), k -> new ArrayList<>()).add(record);
+                    }
+                    recordsOfStream.forEach(VoucherOrderServiceImpl.this::handleRecords);
                 } catch (Exception e) {
-                    log.error("处理订单异常,{}", e);
+                    log.error("处理订单异常", e);
+                    ThreadUtil.sleep(20);
                 }
+            }
+        }
+    }
 
+    /**
+     * 线程数不少于队列数时每个线程负责一个队列（多个线程可能共同消费一个队列），否则每个线程负责多个队列
+     */
+    private static List<String> assignStreamKeys(List<String> streamKeys, int index, int threads) {
+        if (threads >= streamKeys.size()) {
+            return Collections.singletonList(streamKeys.get(index % streamKeys.size()));
+        }
+        List<String> keys = new ArrayList<>();
+        for (int j = index; j < streamKeys.size(); j += threads) {
+            keys.add(streamKeys.get(j));
+        }
+        return keys;
+    }
+
+    /**
+     * 读取一批订单：攒够 batchSize 条或等待超过 batchWaitMillis 即返回
+     */
+    private List<MapRecord<String, Object, Object>> readBatch(List<String> keys, String consumerName) {
+        // XREADGROUP GROUP g1 c1 COUNT 100 BLOCK 2000 STREAMS stream.orders ... > ...
+        List<MapRecord<String, Object, Object>> records = readOrders(keys, consumerName, batchSize, Duration.ofSeconds(2));
+        if (records.isEmpty()) {
+            return records;
+        }
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>(records);
+        long deadline = System.currentTimeMillis() + batchWaitMillis;
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            // BLOCK 0 表示无限等待，剩余时间不足 1ms 时直接返回
+            if (remaining < 1) {
+                break;
+            }
+            records = readOrders(keys, consumerName, batchSize - batch.size(), Duration.ofMillis(remaining));
+            if (records.isEmpty()) {
+                break;
             }
+            batch.addAll(records);
         }
+        return batch;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<MapRecord<String, Object, Object>> readOrders(List<String> keys, String consumerName, int count, Duration block) {
+        StreamOffset<String>[] offsets = keys.stream()
+                .map(key -> StreamOffset.create(key, ReadOffset.lastConsumed()))
+                .toArray(StreamOffset[]::new);
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                StreamReadOptions.empty().count(count).block(block),
+                offsets);
+        return records == null ? Collections.emptyList() : records;
     }
 
     @PostConstruct
-    public void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandle());
+    public void init() {
+        createGroup(SECKILL_ORDER_STREAM_KEY);
+        refreshStreamKeys();
+        int threads = Math.max(consumerThreads, 1);
+        seckillOrderExecutor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandle(CONSUMER_PREFIX + i, i, threads));
+        }
+        PENDING_RECLAIM_EXECUTOR.scheduleWithFixedDelay(this::reclaimPendingOrders,
+                SECKILL_ORDER_MIN_IDLE, SECKILL_ORDER_MIN_IDLE, TimeUnit.SECONDS);
+        // 发现新登记的分片秒杀券
+        PENDING_RECLAIM_EXECUTOR.scheduleWithFixedDelay(this::refreshStreamKeys,
+                SECKILL_STREAM_REFRESH_SECONDS, SECKILL_STREAM_REFRESH_SECONDS, TimeUnit.SECONDS);
     }
 
-    private void handlerVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = UserHolder.getUser().getId();
+    /**
+     * 重新加载需要消费的队列，新的队列先创建消费者组再开始消费
+     */
+    private void refreshStreamKeys() {
+        try {
+            List<String> keys = new ArrayList<>();
+            keys.add(SECKILL_ORDER_STREAM_KEY);
+            Set<String> voucherIds = stringRedisTemplate.opsForSet().members(SECKILL_SHARDED_VOUCHER_KEY);
+            if (voucherIds != null) {
+                // 排序后各轮分配结果稳定
+                for (String voucherId : new TreeSet<>(voucherIds)) {
+                    keys.addAll(seckillStockShards.streamKeys(Long.valueOf(voucherId)));
+                }
+            }
+            List<String> current = streamKeys;
+            for (String key : keys) {
+                if (!current.contains(key)) {
+                    createGroup(key);
+                }
+            }
+            streamKeys = Collections.unmodifiableList(keys);
+        } catch (Exception e) {
+            log.error("刷新订单队列异常", e);
+        }
+    }
+
+    /**
+     * 创建消费者组，从队列开头消费，stream 不存在时一并创建
+     */
+    private void createGroup(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    streamKey.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // 消费者组已存在
+            log.debug("消费者组已存在：{}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        seckillOrderExecutor.shutdown();
+        PENDING_RECLAIM_EXECUTOR.shutdown();
+    }
+
+    /**
+     * 认领空闲超时的待确认订单（消费者宕机或处理失败），重新处理；
+     * 投递次数达到上限的订单不再处理，转入死信队列
+     */
+    private void reclaimPendingOrders() {
+        for (String streamKey : streamKeys) {
+            reclaimPendingOrders(streamKey);
+        }
+    }
+
+    private void reclaimPendingOrders(String streamKey) {
+        try {
+            Duration minIdle = Duration.ofSeconds(SECKILL_ORDER_MIN_IDLE);
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(
+                    streamKey, SECKILL_ORDER_GROUP, Range.unbounded(), batchSize);
+            List<RecordId> idleIds = new ArrayList<>();
+            // 投递次数达到上限的消息
+            Set<RecordId> exhaustedIds = new HashSet<>();
+            for (PendingMessage message : pendingMessages) {
+                if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                    continue;
+                }
+                idleIds.add(message.getId());
+                if (message.getTotalDeliveryCount() >= SECKILL_ORDER_MAX_DELIVERIES) {
+                    exhaustedIds.add(message.getId());
+                }
+            }
+            if (idleIds.isEmpty()) {
+                return;
+            }
+            RecordId[] ids = idleIds.toArray(new RecordId[0]);
+            // XCLAIM 只会认领空闲时间仍超过阈值的消息，避免与其它节点重复认领
+            List<StringRecord> records = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                    ((StringRedisConnection) connection).xClaim(streamKey, SECKILL_ORDER_GROUP,
+                            CONSUMER_PREFIX + "reclaim",
+                            RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(ids)));
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            List<StringRecord> exhausted = new ArrayList<>();
+            List<StringRecord> retry = new ArrayList<>(records.size());
+            for (StringRecord record : records) {
+                (exhaustedIds.contains(record.getId()) ? exhausted : retry).add(record);
+            }
+            if (!exhausted.isEmpty()) {
+                log.error("订单投递次数超过 {} 次，转入死信队列 {} 条", SECKILL_ORDER_MAX_DELIVERIES, exhausted.size());
+                deadLetter(streamKey, exhausted, "超过最大投递次数");
+            }
+            if (!retry.isEmpty()) {
+                log.info("认领待确认订单 {} 条", retry.size());
+                handleRecords(streamKey, retry);
+            }
+        } catch (Exception e) {
+            log.error("认领待确认订单异常", e);
+        }
+    }
+
+    /**
+     * 处理一批订单消息，按优惠券分组，每组在一个事务内批量入库；
+     * 批量失败时退回逐条处理。处理成功的一次性确认，失败的留在待确认列表中等待重新认领，
+     * 无法解析或库存不足的消息重试也不会成功，直接转入死信队列
+     */
+    private void handleRecords(String streamKey, List<? extends Record<String, ? extends Map<?, ?>>> records) {
+        // 优惠券id -> 订单
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = new LinkedHashMap<>();
+        // 订单id -> 消息
+        Map<Long, Record<String, ? extends Map<?, ?>>> recordOfOrder = new HashMap<>(records.size());
+        List<Record<String, ? extends Map<?, ?>>> invalid = new ArrayList<>();
+        for (Record<String, ? extends Map<?, ?>> record : records) {
+            try {
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                if (voucherOrder.getId() == null || voucherOrder.getVoucherId() == null || voucherOrder.getUserId() == null) {
+                    throw new IllegalArgumentException("订单字段不完整：" + record.getValue());
+                }
+                ordersOfVoucher.computeIfAbsent(voucherOrder.getVoucherId(), k -> new ArrayList<>()).add(voucherOrder);
+                recordOfOrder.put(voucherOrder.getId(), record);
+            } catch (Exception e) {
+                log.error("解析订单异常，转入死信队列，消息id：{}", record.getId(), e);
+                invalid.add(record);
+            }
+        }
+        if (!invalid.isEmpty()) {
+            deadLetter(streamKey, invalid, "解析失败");
+        }
+        List<RecordId> handled = new ArrayList<>(records.size());
+        List<Record<String, ? extends Map<?, ?>>> soldOut = new ArrayList<>();
+        ordersOfVoucher.forEach((voucherId, orders) -> {
+            try {
+                voucherOrderServiceImpl.createVoucherOrders(voucherId, orders);
+                orders.forEach(order -> handled.add(recordOfOrder.get(order.getId()).getId()));
+                return;
+            } catch (Exception e) {
+                log.warn("批量入库失败，逐条处理，优惠券id：{}，订单数：{}", voucherId, orders.size(), e);
+            }
+            for (VoucherOrder voucherOrder : orders) {
+                try {
+                    if (handlerVoucherOrder(voucherOrder)) {
+                        handled.add(recordOfOrder.get(voucherOrder.getId()).getId());
+                    }
+                } catch (IllegalStateException e) {
+                    log.error("库存不足，转入死信队列，订单id：{}", voucherOrder.getId());
+                    soldOut.add(recordOfOrder.get(voucherOrder.getId()));
+                } catch (Exception e) {
+                    log.error("处理订单异常，订单id：{}", voucherOrder.getId(), e);
+                }
+            }
+        });
+        if (!soldOut.isEmpty()) {
+            deadLetter(streamKey, soldOut, "库存不足");
+        }
+        if (!handled.isEmpty()) {
+            // XACK stream.orders g1 id...
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP,
+                    handled.toArray(new RecordId[0]));
+        }
+    }
+
+    /**
+     * 将订单消息复制到死信队列 {队列key}:dead 后确认，不再重新投递，由人工排查后处理
+     */
+    private void deadLetter(String streamKey, List<? extends Record<String, ? extends Map<?, ?>>> records, String reason) {
+        String deadLetterKey = streamKey + SECKILL_ORDER_DEAD_LETTER_SUFFIX;
+        List<RecordId> ids = new ArrayList<>(records.size());
+        for (Record<String, ? extends Map<?, ?>> record : records) {
+            Map<String, String> body = new LinkedHashMap<>();
+            record.getValue().forEach((k, v) -> body.put(String.valueOf(k), String.valueOf(v)));
+            body.put("sourceId", record.getId().getValue());
+            body.put("reason", reason);
+            stringRedisTemplate.opsForStream().add(deadLetterKey, body);
+            ids.add(record.getId());
+        }
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, ids.toArray(new RecordId[0]));
+    }
+
+    /**
+     * @return 是否处理完成，未获取到锁时返回 false 等待重新处理
+     * @throws IllegalStateException 库存不足
+     */
+    private boolean handlerVoucherOrder(VoucherOrder voucherOrder) {
+        // 消费线程中没有登录用户，使用订单中的用户id
+        Long userId = voucherOrder.getUserId();
         // 使用 redisson 实现可重入锁
         RLock lock = redissonClient.getLock("lock:order:" + userId);
         boolean success = lock.tryLock();
 
         if (!success) {
            log.error("重复下单！");
-           return;
+           return false;
         }
         try {
             voucherOrderServiceImpl.createVoucherOrder(voucherOrder);
+            return true;
         } finally {
             lock.unlock();
         }
@@ -112,31 +463,78 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     // 优化版 秒杀接口
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 执行lua脚本，判断用户秒杀下单资格
+        // 本地已标记售罄，直接拒绝
+        if (seckillSoldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        Long userId = UserHolder.getUser().getId();
+        // 生成全局唯一订单id
+        long orderId = redisIdWorker.nextId("order");
+        if (seckillStockShards.isEnabled()) {
+            return seckillVoucherOfShards(voucherId, userId, orderId);
+        }
+        // 执行lua脚本，判断用户秒杀下单资格，有资格则将订单写入消息队列
         Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_ORDER_STREAM_KEY),
                 voucherId.toString(),
-                UserHolder.getUser().getId().toString());
+                userId.toString(),
+                String.valueOf(orderId));
         // 判断结果 0：下单成功  1：库存不足  2：重复下单
         int r = result.intValue();
+        if (r == 1) {
+            seckillSoldOutFlags.markSoldOut(voucherId);
+        }
         if (r != 0) {
             return r == 1 ? Result.fail("库存不足") : Result.fail("重复下单");
         }
-        long orderId = redisIdWorker.nextId("order");
-
-        // 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        // 生成全局唯一订单id
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(UserHolder.getUser().getId());
-        voucherOrder.setVoucherId(voucherId);
-        // 创建添加到阻塞队列
-        orderTasks.add(voucherOrder);
-
+        seckillSoldOutFlags.markAvailable(voucherId);
         // 返回
         return Result.ok(orderId);
     }
 
+    /**
+     * 分片库存秒杀：先在用户所属分片判断一人一单并占位、扣减库存，该分片售罄时依次尝试其它分片。
+     * 各分片位于不同槽位，无法在一个脚本中完成，未下单成功时（包括中途异常）在 finally 中删除占位
+     */
+    private Result seckillVoucherOfShards(Long voucherId, Long userId, long orderId) {
+        int shards = seckillStockShards.getShards();
+        int home = seckillStockShards.homeShard(userId);
+        // 第一次执行脚本即在用户所属分片占位，脚本返回重复下单时占位不是本次请求写入的
+        boolean reserved = true;
+        boolean ordered = false;
+        try {
+            for (int i = 0; i < shards; i++) {
+                int shard = (home + i) % shards;
+                // 0：下单成功  1：分片库存不足  2：重复下单
+                Long result = stringRedisTemplate.execute(SECKILL_SHARD_SCRIPT,
+                        Arrays.asList(seckillStockShards.stockKey(voucherId, shard),
+                                seckillStockShards.orderKey(voucherId, shard),
+                                seckillStockShards.streamKey(voucherId, shard)),
+                        voucherId.toString(),
+                        userId.toString(),
+                        String.valueOf(orderId),
+                        shard == home ? "1" : "0");
+                int r = result.intValue();
+                if (r == 0) {
+                    ordered = true;
+                    seckillSoldOutFlags.markAvailable(voucherId);
+                    return Result.ok(orderId);
+                }
+                if (r == 2) {
+                    reserved = false;
+                    return Result.fail("重复下单");
+                }
+            }
+            // 所有分片都已售罄
+            seckillSoldOutFlags.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        } finally {
+            if (reserved && !ordered) {
+                stringRedisTemplate.opsForSet().remove(seckillStockShards.orderKey(voucherId, home), userId.toString());
+            }
+        }
+    }
+
     //@Override
     //public Result seckillVoucher(Long voucherId) {
     //    // 查询秒杀券信息
@@ -195,6 +593,48 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     //    }
     //}
 
+    /**
+     * 同一优惠券的一批订单在一个事务内入库：一次查询去重、一次扣减库存、一次多行插入。
+     * 订单id来自消息本身，同一条消息被重复投递时主键冲突使整批回滚，由逐条处理兜底
+     *
+     * @throws IllegalStateException 库存不足以扣减整批时抛出，整批回滚
+     */
+    @Transactional
+    public void createVoucherOrders(Long voucherId, List<VoucherOrder> orders) {
+        // 一人一单：批内按用户去重
+        Map<Long, VoucherOrder> orderOfUser = new LinkedHashMap<>(orders.size());
+        for (VoucherOrder order : orders) {
+            orderOfUser.putIfAbsent(order.getUserId(), order);
+        }
+        // 一次查询剔除已经下过单的用户
+        query().select("user_id")
+                .eq("voucher_id", voucherId)
+                .in("user_id", orderOfUser.keySet())
+                .list()
+                .forEach(order -> orderOfUser.remove(order.getUserId()));
+        if (orderOfUser.size() < orders.size()) {
+            log.error("用户已经购买过该优惠券了，跳过 {} 条", orders.size() - orderOfUser.size());
+        }
+        if (orderOfUser.isEmpty()) {
+            return;
+        }
+        // 一次扣减整批库存
+        int count = orderOfUser.size();
+        boolean success = iSeckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .ge("stock", count)
+                .update();
+        if (!success) {
+            throw new IllegalStateException("库存不足，无法批量扣减 " + count + " 件");
+        }
+        // 多行插入
+        getBaseMapper().insertBatch(new ArrayList<>(orderOfUser.values()));
+    }
+
+    /**
+     * @throws IllegalStateException 库存不足时抛出，不能当作处理完成确认消息，否则订单丢失
+     */
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
         // 一人一单的问题
@@ -214,8 +654,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .gt("stock", 0)
                 .update();
         if (!success) {
-            log.error("库存不足");
-            return;
+            throw new IllegalStateException("库存不足，优惠券id：" + voucherOrder.getVoucherId());
         }
         //// 创建订单
         //VoucherOrder voucherOrder = new VoucherOrder();
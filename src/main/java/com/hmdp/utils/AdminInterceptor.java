@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * @Description 管理员拦截器，只放行配置的管理员用户，在登录拦截器之后执行
+ * @Date 2023-06-02-10-15
+ * @Author qianzhikang
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    /**
+     * 管理员用户id
+     */
+    private final Set<Long> adminUserIds;
+
+    public AdminInterceptor(Set<Long> adminUserIds) {
+        this.adminUserIds = adminUserIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            // 未登录
+            response.setStatus(401);
+            return false;
+        }
+        if (!adminUserIds.contains(user.getId())) {
+            // 不是管理员
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,486 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Description 二进制编解码器，Shop、ShopType、Blog、UserDTO 按字段紧凑编码，其它类型内嵌 json
+ * <p>
+ * 格式：魔数(1) + 版本(1) + 格式(1) + [逻辑过期时间(8)] + 类型(1) + 数据
+ * <p>
+ * 读取时兼容旧的 json 格式；滚动发布时先以 binaryWrite = false 上线（只读二进制、仍写 json），
+ * 全部节点升级后再打开二进制写入。
+ * <p>
+ * 实体字段变化或新增类型时提升 VERSION，并为变化的类型注册新版本的读取方法，旧版本写入的数据仍按旧版本读取；
+ * 旧节点读到更高版本的数据时 {@link #canDecode} 返回 false，按未命中处理
+ * @Date 2023-05-12-10-10
+ * @Author qianzhikang
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xCB;
+    /**
+     * 当前写入的版本，可以读取 1 ~ VERSION 版本写入的数据
+     */
+    private static final byte VERSION = 1;
+
+    private static final byte FORMAT_VALUE = 1;
+    private static final byte FORMAT_LIST = 2;
+    private static final byte FORMAT_EXPIRE = 3;
+
+    /**
+     * 未注册的类型，数据为 json
+     */
+    private static final byte TYPE_JSON = 0;
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    private final Map<Class<?>, Entry<?>> entries = new HashMap<>();
+    private final Entry<?>[] entriesById = new Entry<?>[8];
+
+    /**
+     * 是否以二进制格式写入
+     */
+    private final boolean binaryWrite;
+
+    public BinaryCacheCodec(boolean binaryWrite) {
+        this.binaryWrite = binaryWrite;
+        // 类型id一旦发布不可修改，新增字段需要提升 VERSION，并在末尾追加新版本的读取方法
+        register(1, Shop.class, BinaryCacheCodec::writeShop, BinaryCacheCodec::readShop);
+        register(2, ShopType.class, BinaryCacheCodec::writeShopType, BinaryCacheCodec::readShopType);
+        register(3, Blog.class, BinaryCacheCodec::writeBlog, BinaryCacheCodec::readBlog);
+        register(4, UserDTO.class, BinaryCacheCodec::writeUser, BinaryCacheCodec::readUser);
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        if (!binaryWrite) {
+            return jsonCodec.encode(value);
+        }
+        Output out = new Output();
+        out.header(FORMAT_VALUE);
+        Entry<?> entry = entries.get(value.getClass());
+        out.writeByte(entry == null ? TYPE_JSON : entry.id);
+        writeValue(out, entry, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] encodeList(List<?> list) {
+        if (!binaryWrite) {
+            return jsonCodec.encodeList(list);
+        }
+        Output out = new Output();
+        out.header(FORMAT_LIST);
+        Entry<?> entry = list.isEmpty() ? null : entries.get(list.get(0).getClass());
+        out.writeByte(entry == null ? TYPE_JSON : entry.id);
+        if (entry == null) {
+            out.writeString(JSONUtil.toJsonStr(list));
+        } else {
+            out.writeInt(list.size());
+            for (Object value : list) {
+                writeValue(out, entry, value);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis) {
+        if (!binaryWrite) {
+            return jsonCodec.encodeWithExpire(value, expireMillis);
+        }
+        Output out = new Output();
+        out.header(FORMAT_EXPIRE);
+        out.writeLong(expireMillis);
+        Entry<?> entry = value == null ? null : entries.get(value.getClass());
+        out.writeByte(entry == null ? TYPE_JSON : entry.id);
+        writeValue(out, entry, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        if (!isBinary(bytes)) {
+            return true;
+        }
+        if (bytes.length < 3) {
+            return false;
+        }
+        byte version = bytes[1];
+        byte format = bytes[2];
+        return version >= 1 && version <= VERSION && format >= FORMAT_VALUE && format <= FORMAT_EXPIRE;
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (!isBinary(bytes)) {
+            return jsonCodec.decode(bytes, type);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte version = readHeader(in, FORMAT_VALUE);
+        if (version == 0) {
+            return null;
+        }
+        return readValue(in, version, in.get(), type);
+    }
+
+    @Override
+    public <R> List<R> decodeList(byte[] bytes, Class<R> type) {
+        if (!isBinary(bytes)) {
+            return jsonCodec.decodeList(bytes, type);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte version = readHeader(in, FORMAT_LIST);
+        if (version == 0) {
+            return null;
+        }
+        byte typeId = in.get();
+        if (typeId == TYPE_JSON) {
+            return JSONUtil.toList(readString(in), type);
+        }
+        int size = in.getInt();
+        List<R> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(readValue(in, version, typeId, type));
+        }
+        return list;
+    }
+
+    @Override
+    public <R> ExpireData<R> decodeWithExpire(byte[] bytes, Class<R> type) {
+        if (!isBinary(bytes)) {
+            return jsonCodec.decodeWithExpire(bytes, type);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte version = readHeader(in, FORMAT_EXPIRE);
+        if (version == 0) {
+            return null;
+        }
+        long expireMillis = in.getLong();
+        R data = readValue(in, version, in.get(), type);
+        return new ExpireData<>(data, expireMillis);
+    }
+
+    private static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    /**
+     * 读取并校验头部
+     *
+     * @return 写入时的版本，无法识别的版本或格式不符返回 0
+     */
+    private static byte readHeader(ByteBuffer in, byte format) {
+        if (in.remaining() < 3) {
+            return 0;
+        }
+        in.get();
+        byte version = in.get();
+        if (version < 1 || version > VERSION || in.get() != format) {
+            return 0;
+        }
+        return version;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void writeValue(Output out, Entry<T> entry, Object value) {
+        if (entry == null) {
+            out.writeString(value == null ? null : JSONUtil.toJsonStr(value));
+        } else {
+            entry.writer.write(out, (T) value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R readValue(ByteBuffer in, byte version, byte typeId, Class<R> type) {
+        if (typeId == TYPE_JSON) {
+            String json = readString(in);
+            return json == null ? null : JSONUtil.toBean(json, type);
+        }
+        Entry<?> entry = typeId > 0 && typeId < entriesById.length ? entriesById[typeId] : null;
+        if (entry == null || entry.type != type) {
+            throw new IllegalStateException("缓存数据类型不匹配：" + typeId + " -> " + type.getName());
+        }
+        return (R) entry.reader(version).read(in);
+    }
+
+    /**
+     * 注册类型
+     *
+     * @param readers 各版本的读取方法，第 i 个读取版本 i + 1 写入的数据，之后未变化的版本沿用最后一个
+     */
+    @SafeVarargs
+    private final <T> void register(int id, Class<T> type, Writer<T> writer, Reader<T>... readers) {
+        Entry<T> entry = new Entry<>((byte) id, type, writer, readers);
+        entries.put(type, entry);
+        entriesById[id] = entry;
+    }
+
+    // ---------------------------------- 实体编码 ----------------------------------
+
+    private static void writeShop(Output out, Shop shop) {
+        out.writeNullableLong(shop.getId());
+        out.writeString(shop.getName());
+        out.writeNullableLong(shop.getTypeId());
+        out.writeString(shop.getImages());
+        out.writeString(shop.getArea());
+        out.writeString(shop.getAddress());
+        out.writeNullableDouble(shop.getX());
+        out.writeNullableDouble(shop.getY());
+        out.writeNullableLong(shop.getAvgPrice());
+        out.writeNullableInt(shop.getSold());
+        out.writeNullableInt(shop.getComments());
+        out.writeNullableInt(shop.getScore());
+        out.writeString(shop.getOpenHours());
+        out.writeTime(shop.getCreateTime());
+        out.writeTime(shop.getUpdateTime());
+    }
+
+    private static Shop readShop(ByteBuffer in) {
+        Shop shop = new Shop();
+        shop.setId(readNullableLong(in));
+        shop.setName(readString(in));
+        shop.setTypeId(readNullableLong(in));
+        shop.setImages(readString(in));
+        shop.setArea(readString(in));
+        shop.setAddress(readString(in));
+        shop.setX(readNullableDouble(in));
+        shop.setY(readNullableDouble(in));
+        shop.setAvgPrice(readNullableLong(in));
+        shop.setSold(readNullableInt(in));
+        shop.setComments(readNullableInt(in));
+        shop.setScore(readNullableInt(in));
+        shop.setOpenHours(readString(in));
+        shop.setCreateTime(readTime(in));
+        shop.setUpdateTime(readTime(in));
+        return shop;
+    }
+
+    private static void writeShopType(Output out, ShopType shopType) {
+        out.writeNullableLong(shopType.getId());
+        out.writeString(shopType.getName());
+        out.writeString(shopType.getIcon());
+        out.writeNullableInt(shopType.getSort());
+        out.writeTime(shopType.getCreateTime());
+        out.writeTime(shopType.getUpdateTime());
+    }
+
+    private static ShopType readShopType(ByteBuffer in) {
+        ShopType shopType = new ShopType();
+        shopType.setId(readNullableLong(in));
+        shopType.setName(readString(in));
+        shopType.setIcon(readString(in));
+        shopType.setSort(readNullableInt(in));
+        shopType.setCreateTime(readTime(in));
+        shopType.setUpdateTime(readTime(in));
+        return shopType;
+    }
+
+    /**
+     * 作者信息与是否点赞与当前请求相关，不写入缓存
+     */
+    private static void writeBlog(Output out, Blog blog) {
+        out.writeNullableLong(blog.getId());
+        out.writeNullableLong(blog.getShopId());
+        out.writeNullableLong(blog.getUserId());
+        out.writeString(blog.getTitle());
+        out.writeString(blog.getImages());
+        out.writeString(blog.getContent());
+        out.writeNullableInt(blog.getLiked());
+        out.writeNullableInt(blog.getComments());
+        out.writeTime(blog.getCreateTime());
+        out.writeTime(blog.getUpdateTime());
+    }
+
+    private static Blog readBlog(ByteBuffer in) {
+        Blog blog = new Blog();
+        blog.setId(readNullableLong(in));
+        blog.setShopId(readNullableLong(in));
+        blog.setUserId(readNullableLong(in));
+        blog.setTitle(readString(in));
+        blog.setImages(readString(in));
+        blog.setContent(readString(in));
+        blog.setLiked(readNullableInt(in));
+        blog.setComments(readNullableInt(in));
+        blog.setCreateTime(readTime(in));
+        blog.setUpdateTime(readTime(in));
+        return blog;
+    }
+
+    private static void writeUser(Output out, UserDTO user) {
+        out.writeNullableLong(user.getId());
+        out.writeString(user.getNickName());
+        out.writeString(user.getIcon());
+    }
+
+    private static UserDTO readUser(ByteBuffer in) {
+        UserDTO user = new UserDTO();
+        user.setId(readNullableLong(in));
+        user.setNickName(readString(in));
+        user.setIcon(readString(in));
+        return user;
+    }
+
+    // ---------------------------------- 基础类型 ----------------------------------
+
+    private static Long readNullableLong(ByteBuffer in) {
+        return in.get() == 0 ? null : in.getLong();
+    }
+
+    private static Integer readNullableInt(ByteBuffer in) {
+        return in.get() == 0 ? null : in.getInt();
+    }
+
+    private static Double readNullableDouble(ByteBuffer in) {
+        return in.get() == 0 ? null : in.getDouble();
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private static LocalDateTime readTime(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        long epochSecond = in.getLong();
+        int nano = in.getInt();
+        return LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+    }
+
+    private interface Writer<T> {
+        void write(Output out, T value);
+    }
+
+    private interface Reader<T> {
+        T read(ByteBuffer in);
+    }
+
+    private static class Entry<T> {
+        private final byte id;
+        private final Class<T> type;
+        private final Writer<T> writer;
+        private final Reader<T>[] readers;
+
+        private Entry(byte id, Class<T> type, Writer<T> writer, Reader<T>[] readers) {
+            if (readers.length == 0 || readers.length > VERSION) {
+                throw new IllegalArgumentException("读取方法数量不正确：" + type.getName());
+            }
+            this.id = id;
+            this.type = type;
+            this.writer = writer;
+            this.readers = readers;
+        }
+
+        /**
+         * 按写入时的版本选择读取方法
+         */
+        private Reader<T> reader(byte version) {
+            return readers[Math.min(version, readers.length) - 1];
+        }
+    }
+
+    /**
+     * 写入缓冲区
+     */
+    private static class Output {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        void header(byte format) {
+            writeByte(MAGIC);
+            writeByte(VERSION);
+            writeByte(format);
+        }
+
+        void writeByte(int v) {
+            try {
+                out.writeByte(v);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeInt(int v) {
+            try {
+                out.writeInt(v);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeLong(long v) {
+            try {
+                out.writeLong(v);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeNullableLong(Long v) {
+            writeByte(v == null ? 0 : 1);
+            if (v != null) {
+                writeLong(v);
+            }
+        }
+
+        void writeNullableInt(Integer v) {
+            writeByte(v == null ? 0 : 1);
+            if (v != null) {
+                writeInt(v);
+            }
+        }
+
+        void writeNullableDouble(Double v) {
+            writeByte(v == null ? 0 : 1);
+            if (v != null) {
+                writeLong(Double.doubleToLongBits(v));
+            }
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeInt(b.length);
+            bytes.write(b, 0, b.length);
+        }
+
+        void writeTime(LocalDateTime time) {
+            writeByte(time == null ? 0 : 1);
+            if (time != null) {
+                writeLong(time.toEpochSecond(ZoneOffset.UTC));
+                writeInt(time.getNano());
+            }
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
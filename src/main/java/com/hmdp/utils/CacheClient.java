@@ -1,33 +1,111 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSON;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * @Description 缓存工具类
  * @Date 2023-04-24-15-41
  * @Author qianzhikang
  */
+@Slf4j
 @Component
 public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisTemplate<String, byte[]> bytesRedisTemplate;
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private CacheCodec cacheCodec;
+
+    /**
+     * 缓存空对象的值
+     */
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    /**
+     * 为指定 key 前缀开启本地一级缓存
+     *
+     * @param keyPrefix   key前缀
+     * @param maximumSize 本地最大条目数
+     * @param time        本地过期时间
+     * @param timeUnit    时间单位
+     */
+    public void enableLocalCache(String keyPrefix, long maximumSize, Long time, TimeUnit timeUnit) {
+        localCache.register(keyPrefix, maximumSize, time, timeUnit);
+    }
+
+    /**
+     * 删除缓存，并广播通知所有节点清除本地缓存。
+     * 在事务中调用时等到事务提交后再删除，避免其它请求在提交前读到旧数据并重新写入缓存
+     *
+     * @param key key
+     */
+    public void delete(String key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            doDelete(key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                doDelete(key);
+            }
+        });
+    }
+
+    private void doDelete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.publishInvalidate(key);
+    }
+
+    /**
+     * 查询本地缓存，每次解码出新的对象
+     */
+    private <R> R getLocal(String keyPrefix, String key, Class<R> type) {
+        byte[] bytes = localCache.get(keyPrefix, key);
+        return bytes == null ? null : cacheCodec.decode(bytes, type);
+    }
+
+    /**
+     * 查询本地缓存的逻辑过期数据，本地缓存只保存未过期的数据，不再判断过期时间
+     */
+    private <R> R getLocalWithExpire(String keyPrefix, String key, Class<R> type) {
+        byte[] bytes = localCache.get(keyPrefix, key);
+        if (bytes == null) {
+            return null;
+        }
+        CacheCodec.ExpireData<R> expireData = cacheCodec.decodeWithExpire(bytes, type);
+        return expireData == null ? null : expireData.getData();
+    }
+
     /**
      * 存入Redis并设置过期时间
      *
@@ -37,7 +115,32 @@ public class CacheClient {
      * @param timeUnit 时间单位
      */
     public void set(String key, Object object, Long time, TimeUnit timeUnit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(object), time, timeUnit);
+        bytesRedisTemplate.opsForValue().set(key, cacheCodec.encode(object), time, timeUnit);
+    }
+
+    /**
+     * 查询集合缓存
+     *
+     * @param key  key
+     * @param type 元素类型
+     * @return 不存在返回 null
+     */
+    public <R> List<R> getList(String key, Class<R> type) {
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        return cacheCodec.decodeList(bytes, type);
+    }
+
+    /**
+     * 存入集合，不设置过期时间
+     *
+     * @param key  key
+     * @param list 集合
+     */
+    public void setList(String key, List<?> list) {
+        bytesRedisTemplate.opsForValue().set(key, cacheCodec.encodeList(list));
     }
 
 
@@ -45,15 +148,23 @@ public class CacheClient {
      * 存入Redis并设置逻辑过期时间
      *
      * @param key      key
-     * @param object   存储对象
+     * @param object   存储对象，为 null（如数据已被删除）时写入空值
      * @param time     过期时间
      * @param timeUnit 时间单位
      */
     public void setWithLogicExpire(String key, Object object, Long time, TimeUnit timeUnit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(object);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        if (object == null) {
+            bytesRedisTemplate.opsForValue().set(key, NULL_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return;
+        }
+        bytesRedisTemplate.opsForValue().set(key, encodeWithExpire(object, time, timeUnit));
+    }
+
+    /**
+     * 编码逻辑过期数据，过期时间以毫秒时间戳存储
+     */
+    private byte[] encodeWithExpire(Object object, Long time, TimeUnit timeUnit) {
+        return cacheCodec.encodeWithExpire(object, System.currentTimeMillis() + timeUnit.toMillis(time));
     }
 
 
@@ -77,31 +188,62 @@ public class CacheClient {
                                           Long time, TimeUnit timeUnit) {
         // 产品key
         String key = keyPrefix + id;
+        // 查询本地缓存
+        R local = getLocal(keyPrefix, key, type);
+        if (local != null) {
+            return local;
+        }
+        // 查询redis之前读取失效版本号，期间缓存被删除则不写入本地缓存
+        long generation = localCache.generation(key);
         // 查询redis
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
         // 存在直接返回
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
+        R cached = bytes == null || bytes.length == 0 ? null : cacheCodec.decode(bytes, type);
+        if (cached != null) {
+            localCache.put(keyPrefix, key, bytes, generation);
+            return cached;
         }
-        // 若结果为 "" 字符串代表是缓存空对象处理的redis，直接返回 null
-        if ("".equals(json)) {
+        // 若结果为空字节代表是缓存空对象处理的redis，直接返回 null
+        if (bytes != null && bytes.length == 0) {
             return null;
         }
+        // 更高版本写入的数据，查询数据库但不覆盖
+        if (bytes != null && !cacheCodec.canDecode(bytes)) {
+            return loadWithoutCache(key, id, type, function);
+        }
         // 查询数据库数据
         R r = function.apply(id);
         // 若数据库不存在，使用缓存空对象方法处理缓存穿透,并返回null，此处过时时间默认为2分钟
         if (r == null) {
-            stringRedisTemplate.opsForValue().set(key, "", 2L, TimeUnit.MINUTES);
+            bytesRedisTemplate.opsForValue().set(key, NULL_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
             return null;
         }
         // 存在的情况下，存储入缓存
-        set(key, r, time, timeUnit);
+        byte[] encoded = cacheCodec.encode(r);
+        bytesRedisTemplate.opsForValue().set(key, encoded, time, timeUnit);
+        localCache.put(keyPrefix, key, encoded, generation);
         // 返回值
         return r;
     }
 
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
+    /**
+     * 缓存重建的请求合并
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 缓存数据无法识别时查询数据库的请求合并
+     */
+    private final SingleFlight loadFlight = new SingleFlight();
+
+    /**
+     * 互斥锁重建时，等待其它节点重建的次数与间隔（毫秒）
+     */
+    private static final int MUTEX_MAX_RETRIES = 20;
+    private static final long MUTEX_RETRY_INTERVAL = 50L;
+
     /**
      *
      * @param keyPrefix key前缀
@@ -116,46 +258,459 @@ public class CacheClient {
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> function, Long time, TimeUnit timeUnit) {
         // 构造redis查询key
         String key = keyPrefix + id;
+        // 查询本地缓存
+        R local = getLocalWithExpire(keyPrefix, key, type);
+        if (local != null) {
+            return local;
+        }
+        long generation = localCache.generation(key);
         // 查询结果
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
         // 若不存在，则代表数据不存在，不是热点key，返回null
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
             return null;
         }
+        // 滚动发布期间更高版本写入的数据无法识别，按未命中查询数据库，不覆盖缓存
+        if (!cacheCodec.canDecode(bytes)) {
+            return loadWithoutCache(key, id, type, function);
+        }
         // 存在，类型转换
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data, type);
+        CacheCodec.ExpireData<R> expireData = cacheCodec.decodeWithExpire(bytes, type);
+        if (expireData == null) {
+            return loadWithoutCache(key, id, type, function);
+        }
+        R r = expireData.getData();
+        if (r == null) {
+            return null;
+        }
         // 过期判断
         // 未过期
-        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+        if (!expireData.isExpired(System.currentTimeMillis())) {
+            // 只缓存未过期的数据，过期数据等待重建后再进入本地缓存
+            localCache.put(keyPrefix, key, bytes, generation);
             return r;
         }
-        // 过期 -> 缓存重建
-        boolean isLock = tryLock(key);
-        if (isLock) {
-            // 新建线程执行缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
+        // 过期 -> 缓存重建，同一节点内只提交一个重建任务，由该任务去竞争分布式锁
+        singleFlight.submit(key, CACHE_REBUILD_EXECUTOR, () -> {
+            String lockKey = lockKey(key);
+            if (!tryLock(lockKey)) {
+                // 其它节点正在重建
+                return;
+            }
+            try {
+                // double check 其它节点可能刚刚重建完成并释放了锁
+                byte[] latest = bytesRedisTemplate.opsForValue().get(key);
+                if (latest != null && latest.length > 0 && !cacheCodec.canDecode(latest)) {
+                    // 已被更高版本的节点重建
+                    return;
+                }
+                CacheCodec.ExpireData<R> latestData = latest == null || latest.length == 0 ? null : cacheCodec.decodeWithExpire(latest, type);
+                if (latestData != null && !latestData.isExpired(System.currentTimeMillis())) {
+                    return;
+                }
+                // 数据库查询
+                R r1 = function.apply(id);
+                // 缓存数据
+                setWithLogicExpire(key, r1, time, timeUnit);
+            } finally {
+                // 释放锁
+                unlock(lockKey);
+            }
+        });
+        return r;
+    }
+
+    /**
+     * 互斥锁解决缓存击穿的查询缓存，同一节点内并发未命中的请求合并为一次重建，
+     * 只有执行重建的线程去竞争分布式锁
+     *
+     * @param keyPrefix key前缀
+     * @param id        id
+     * @param type      返回值类型
+     * @param function  数据库查询逻辑
+     * @param time      查询数据库后，存入缓存的过期时间
+     * @param timeUnit  时间单位
+     * @param <R>       返回值类型
+     * @param <ID>      查询参数
+     * @return 返回指定type类型结果
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> function, Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+        // 查询本地缓存
+        R local = getLocal(keyPrefix, key, type);
+        if (local != null) {
+            return local;
+        }
+        long generation = localCache.generation(key);
+        // 查询redis
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+        R cached = bytes == null || bytes.length == 0 ? null : cacheCodec.decode(bytes, type);
+        if (cached != null) {
+            localCache.put(keyPrefix, key, bytes, generation);
+            return cached;
+        }
+        // 命中空值
+        if (bytes != null && bytes.length == 0) {
+            return null;
+        }
+        // 更高版本写入的数据，查询数据库但不覆盖
+        if (bytes != null && !cacheCodec.canDecode(bytes)) {
+            return loadWithoutCache(key, id, type, function);
+        }
+        // 未命中 -> 合并同一节点内的并发重建，合并的请求共享编码后的结果，各自解码出新的对象
+        byte[] rebuilt = singleFlight.execute(key, () -> rebuildWithMutex(key, id, type, function, time, timeUnit));
+        if (rebuilt.length == 0) {
+            return null;
+        }
+        localCache.put(keyPrefix, key, rebuilt, generation);
+        return cacheCodec.decode(rebuilt, type);
+    }
+
+    /**
+     * 获取分布式锁后重建缓存，锁被其它节点持有时等待其重建结果
+     *
+     * @return 编码后的数据，不存在返回 NULL_VALUE
+     */
+    private <R, ID> byte[] rebuildWithMutex(String key, ID id, Class<R> type, Function<ID, R> function, Long time, TimeUnit timeUnit) {
+        String lockKey = lockKey(key);
+        for (int i = 0; i < MUTEX_MAX_RETRIES; i++) {
+            if (tryLock(lockKey)) {
                 try {
-                    // 数据库查询
-                    R r1 = function.apply(id);
-                    // 缓存数据
-                    setWithLogicExpire(key, r1, time, timeUnit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    // double check 其它节点可能已经重建完成
+                    byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+                    if (bytes != null) {
+                        return cacheCodec.canDecode(bytes) ? bytes : load(id, function);
+                    }
+                    return loadAndSet(key, id, function, time, timeUnit);
                 } finally {
-                    // 释放锁
-                    unlock(key);
+                    unlock(lockKey);
                 }
-            });
+            }
+            // 其它节点正在重建，等待后查询其结果
+            ThreadUtil.sleep(MUTEX_RETRY_INTERVAL);
+            byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+            if (bytes != null) {
+                return cacheCodec.canDecode(bytes) ? bytes : load(id, function);
+            }
         }
-        return r;
+        // 长时间未获取到锁，直接查询数据库
+        return loadAndSet(key, id, function, time, timeUnit);
+    }
+
+    /**
+     * 查询数据库并写入缓存，不存在时写入空值
+     *
+     * @return 编码后的数据，不存在返回 NULL_VALUE
+     */
+    private <R, ID> byte[] loadAndSet(String key, ID id, Function<ID, R> function, Long time, TimeUnit timeUnit) {
+        R r = function.apply(id);
+        if (r == null) {
+            bytesRedisTemplate.opsForValue().set(key, NULL_VALUE, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return NULL_VALUE;
+        }
+        byte[] encoded = cacheCodec.encode(r);
+        bytesRedisTemplate.opsForValue().set(key, encoded, time, timeUnit);
+        return encoded;
+    }
+
+    /**
+     * 缓存数据无法识别时直接查询数据库，不写入缓存，同一节点内的并发请求合并为一次查询
+     */
+    private <R, ID> R loadWithoutCache(String key, ID id, Class<R> type, Function<ID, R> function) {
+        byte[] loaded = loadFlight.execute(key, () -> load(id, function));
+        return loaded.length == 0 ? null : cacheCodec.decode(loaded, type);
+    }
+
+    /**
+     * 查询数据库，不写入缓存
+     *
+     * @return 编码后的数据，不存在返回 NULL_VALUE
+     */
+    private <R, ID> byte[] load(ID id, Function<ID, R> function) {
+        R r = function.apply(id);
+        return r == null ? NULL_VALUE : cacheCodec.encode(r);
+    }
+
+    /**
+     * 带缓存穿透保护的批量查询缓存，一次 MGET 查询 redis，未命中的 id 一次性查询数据库，
+     * 回写的数据与空值通过 pipeline 一次写入
+     *
+     * @param keyPrefix key前缀
+     * @param ids       id集合
+     * @param type      返回值类型
+     * @param function  数据库批量查询逻辑，如 listByIds
+     * @param idGetter  从查询结果中获取id
+     * @param time      查询数据库后，存入缓存的过期时间
+     * @param timeUnit  时间单位
+     * @param <R>       返回值类型
+     * @param <ID>      查询参数
+     * @return 按 ids 顺序排列的结果，不存在的 id 不包含在内
+     */
+    public <R, ID> List<R> queryManyWithPassThrough(String keyPrefix,
+                                                    Collection<ID> ids,
+                                                    Class<R> type,
+                                                    Function<Collection<ID>, List<R>> function,
+                                                    Function<R, ID> idGetter,
+                                                    Long time, TimeUnit timeUnit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<ID, R> result = new HashMap<>(ids.size());
+        // 查询本地缓存，剩余的 id 查询redis
+        List<ID> remoteIds = new ArrayList<>();
+        // 查询redis之前读取失效版本号
+        Map<ID, Long> generations = new HashMap<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            R local = getLocal(keyPrefix, keyPrefix + id, type);
+            if (local != null) {
+                result.put(id, local);
+            } else {
+                remoteIds.add(id);
+                generations.put(id, localCache.generation(keyPrefix + id));
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return collect(ids, result);
+        }
+        // 一次 MGET 查询redis
+        List<byte[]> values = multiGet(keyPrefix, remoteIds);
+        List<ID> missIds = new ArrayList<>();
+        // 更高版本写入的数据，查询数据库但不覆盖
+        Set<ID> unreadableIds = new HashSet<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            byte[] bytes = values.get(i);
+            if (bytes != null && bytes.length == 0) {
+                // 缓存的空对象，直接跳过
+                continue;
+            }
+            if (bytes != null && !cacheCodec.canDecode(bytes)) {
+                unreadableIds.add(id);
+                missIds.add(id);
+                continue;
+            }
+            R r = bytes == null ? null : cacheCodec.decode(bytes, type);
+            if (r == null) {
+                missIds.add(id);
+                continue;
+            }
+            result.put(id, r);
+            localCache.put(keyPrefix, keyPrefix + id, bytes, generations.get(id));
+        }
+        if (missIds.isEmpty()) {
+            return collect(ids, result);
+        }
+        // 未命中的 id 一次性查询数据库
+        Map<ID, R> loaded = loadMany(missIds, function, idGetter);
+        result.putAll(loaded);
+        Map<ID, byte[]> encoded = new HashMap<>(loaded.size());
+        loaded.forEach((id, r) -> encoded.put(id, cacheCodec.encode(r)));
+        // pipeline 回写数据与空值
+        bytesRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : missIds) {
+                if (unreadableIds.contains(id)) {
+                    continue;
+                }
+                byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                byte[] value = encoded.get(id);
+                if (value == null) {
+                    connection.setEx(rawKey, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), NULL_VALUE);
+                } else {
+                    connection.setEx(rawKey, timeUnit.toSeconds(time), value);
+                }
+            }
+            return null;
+        });
+        encoded.forEach((id, value) -> localCache.put(keyPrefix, keyPrefix + id, value, generations.get(id)));
+        return collect(ids, result);
+    }
+
+    /**
+     * 逻辑过期的批量查询缓存，一次 MGET 查询 redis，未命中的 id 一次性查询数据库并回写，
+     * 已过期的数据返回旧值，并在后台一次性重建
+     *
+     * @param keyPrefix key前缀
+     * @param ids       id集合
+     * @param type      返回值类型
+     * @param function  数据库批量查询逻辑，如 listByIds
+     * @param idGetter  从查询结果中获取id
+     * @param time      查询数据库后，存入缓存的逻辑过期时间
+     * @param timeUnit  时间单位
+     * @param <R>       返回值类型
+     * @param <ID>      查询参数
+     * @return 按 ids 顺序排列的结果，不存在的 id 不包含在内
+     */
+    public <R, ID> List<R> queryManyWithLogicalExpire(String keyPrefix,
+                                                      Collection<ID> ids,
+                                                      Class<R> type,
+                                                      Function<Collection<ID>, List<R>> function,
+                                                      Function<R, ID> idGetter,
+                                                      Long time, TimeUnit timeUnit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<ID, R> result = new HashMap<>(ids.size());
+        List<ID> remoteIds = new ArrayList<>();
+        Map<ID, Long> generations = new HashMap<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            R local = getLocalWithExpire(keyPrefix, keyPrefix + id, type);
+            if (local != null) {
+                result.put(id, local);
+            } else {
+                remoteIds.add(id);
+                generations.put(id, localCache.generation(keyPrefix + id));
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return collect(ids, result);
+        }
+        List<byte[]> values = multiGet(keyPrefix, remoteIds);
+        List<ID> missIds = new ArrayList<>();
+        List<ID> expiredIds = new ArrayList<>();
+        // 更高版本写入的数据，查询数据库但不覆盖
+        Set<ID> unreadableIds = new HashSet<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            byte[] bytes = values.get(i);
+            if (bytes != null && bytes.length == 0) {
+                continue;
+            }
+            if (bytes != null && !cacheCodec.canDecode(bytes)) {
+                unreadableIds.add(id);
+                missIds.add(id);
+                continue;
+            }
+            CacheCodec.ExpireData<R> expireData = bytes == null ? null : cacheCodec.decodeWithExpire(bytes, type);
+            if (expireData == null) {
+                missIds.add(id);
+                continue;
+            }
+            R r = expireData.getData();
+            if (r == null) {
+                continue;
+            }
+            result.put(id, r);
+            if (!expireData.isExpired(now)) {
+                localCache.put(keyPrefix, keyPrefix + id, bytes, generations.get(id));
+            } else {
+                expiredIds.add(id);
+            }
+        }
+        // 未命中的 id 同步加载并回写
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = loadMany(missIds, function, idGetter);
+            result.putAll(loaded);
+            List<ID> writeIds = missIds.stream().filter(id -> !unreadableIds.contains(id)).collect(Collectors.toList());
+            writeManyWithLogicExpire(keyPrefix, writeIds, loaded, time, timeUnit);
+        }
+        // 过期的 id 获取锁后交给后台线程一次性重建
+        if (!expiredIds.isEmpty()) {
+            List<ID> lockedIds = tryLockMany(keyPrefix, expiredIds);
+            if (!lockedIds.isEmpty()) {
+                // execute 而不是 submit，submit 会把异常吞进 Future
+                CACHE_REBUILD_EXECUTOR.execute(() -> {
+                    try {
+                        Map<ID, R> loaded = loadMany(lockedIds, function, idGetter);
+                        writeManyWithLogicExpire(keyPrefix, lockedIds, loaded, time, timeUnit);
+                    } catch (Exception e) {
+                        log.error("批量重建缓存失败，key前缀：{}，ids：{}", keyPrefix, lockedIds, e);
+                    } finally {
+                        stringRedisTemplate.delete(lockedIds.stream()
+                                .map(id -> lockKey(keyPrefix + id))
+                                .collect(Collectors.toList()));
+                    }
+                });
+            }
+        }
+        return collect(ids, result);
+    }
+
+    /**
+     * 一次 MGET 批量查询
+     */
+    private <ID> List<byte[]> multiGet(String keyPrefix, List<ID> ids) {
+        List<String> keys = ids.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<byte[]> values = bytesRedisTemplate.opsForValue().multiGet(keys);
+        return values == null ? Collections.nCopies(keys.size(), null) : values;
+    }
+
+    /**
+     * 一次数据库查询，按id分组
+     */
+    private <R, ID> Map<ID, R> loadMany(Collection<ID> ids, Function<Collection<ID>, List<R>> function, Function<R, ID> idGetter) {
+        List<R> list = function.apply(ids);
+        if (list == null || list.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return list.stream().collect(Collectors.toMap(idGetter, Function.identity(), (a, b) -> a));
+    }
+
+    /**
+     * pipeline 批量写入逻辑过期数据，数据库不存在的写入空值
+     */
+    private <R, ID> void writeManyWithLogicExpire(String keyPrefix, Collection<ID> ids, Map<ID, R> values, Long time, TimeUnit timeUnit) {
+        bytesRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : ids) {
+                byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                R r = values.get(id);
+                if (r == null) {
+                    connection.setEx(rawKey, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), NULL_VALUE);
+                } else {
+                    connection.set(rawKey, encodeWithExpire(r, time, timeUnit));
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * pipeline 批量获取互斥锁
+     *
+     * @return 获取锁成功的id
+     */
+    private <ID> List<ID> tryLockMany(String keyPrefix, List<ID> ids) {
+        List<Object> flags = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ID id : ids) {
+                conn.set(lockKey(keyPrefix + id), "1", Expiration.seconds(LOCK_SHOP_TTL), RedisStringCommands.SetOption.SET_IF_ABSENT);
+            }
+            return null;
+        });
+        List<ID> locked = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (BooleanUtil.isTrue((Boolean) flags.get(i))) {
+                locked.add(ids.get(i));
+            }
+        }
+        return locked;
+    }
+
+    /**
+     * 按传入 ids 的顺序整理结果
+     */
+    private <R, ID> List<R> collect(Collection<ID> ids, Map<ID, R> result) {
+        List<R> list = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = result.get(id);
+            if (r != null) {
+                list.add(r);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 缓存key对应的互斥锁key，如 cache:shop:1 -> lock:shop:1
+     */
+    private static String lockKey(String key) {
+        return LOCK_KEY_PREFIX + StrUtil.removePrefix(key, CACHE_KEY_PREFIX);
     }
     /**
      * 获取互斥锁
      */
     private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
         // 防止拆箱空指针
         return BooleanUtil.isTrue(flag);
     }
@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * @Description 缓存编解码器，决定对象在 redis 中的存储格式
+ * @Date 2023-05-12-09-40
+ * @Author qianzhikang
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码单个对象
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 编码集合
+     */
+    byte[] encodeList(List<?> list);
+
+    /**
+     * 编码逻辑过期数据
+     *
+     * @param value        存储对象
+     * @param expireMillis 逻辑过期时间（毫秒时间戳）
+     */
+    byte[] encodeWithExpire(Object value, long expireMillis);
+
+    /**
+     * 是否能识别数据的格式，滚动发布期间旧节点读到新版本写入的数据时返回 false，
+     * 调用方应查询数据库，且不能用旧格式覆盖
+     */
+    default boolean canDecode(byte[] bytes) {
+        return true;
+    }
+
+    /**
+     * 解码单个对象
+     *
+     * @return 无法识别的格式（如更高版本写入的数据）返回 null，按未命中处理
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 解码集合
+     *
+     * @return 无法识别的格式返回 null
+     */
+    <R> List<R> decodeList(byte[] bytes, Class<R> type);
+
+    /**
+     * 解码逻辑过期数据
+     *
+     * @return 无法识别的格式返回 null
+     */
+    <R> ExpireData<R> decodeWithExpire(byte[] bytes, Class<R> type);
+
+    /**
+     * 逻辑过期数据
+     */
+    @Getter
+    @AllArgsConstructor
+    class ExpireData<R> {
+        private final R data;
+        private final long expireMillis;
+
+        public boolean isExpired(long nowMillis) {
+            return expireMillis <= nowMillis;
+        }
+    }
+}
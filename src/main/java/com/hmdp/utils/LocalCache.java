@@ -0,0 +1,166 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * @Description 进程内一级缓存（L1），redis 作为二级缓存（L2）
+ * 按 key 前缀分别配置容量与过期时间，淘汰策略为 caffeine 的 W-TinyLFU，
+ * 删除缓存时通过 redis 发布订阅通知所有节点清除本地副本。
+ * 本地缓存保存编码后的字节而不是对象，每次读取都解码出新的对象，调用方修改返回值不会影响其它请求。
+ * 每次失效递增 key 的版本号，查询 redis 前读取版本号，写入时版本号已变化说明读到的可能是失效前的旧数据，放弃写入
+ * @Date 2023-05-10-10-30
+ * @Author qianzhikang
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 是否开启本地缓存
+     */
+    @Value("${hmdp.cache.local.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * key前缀 -> 本地缓存
+     */
+    private final Map<String, Cache<String, byte[]>> caches = new ConcurrentHashMap<>();
+
+    /**
+     * 失效版本号，按 key 的 hash 分段，不同 key 共用一段时只会多放弃几次写入
+     */
+    private static final int GENERATION_STRIPES = 4096;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @PostConstruct
+    public void init() {
+        // 订阅缓存失效频道
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 为指定 key 前缀开启本地缓存
+     *
+     * @param keyPrefix   key前缀
+     * @param maximumSize 最大条目数
+     * @param time        过期时间
+     * @param timeUnit    时间单位
+     */
+    public void register(String keyPrefix, long maximumSize, Long time, TimeUnit timeUnit) {
+        if (!enabled) {
+            return;
+        }
+        caches.computeIfAbsent(keyPrefix, prefix -> Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(time, timeUnit)
+                .build());
+    }
+
+    /**
+     * 查询本地缓存
+     *
+     * @param keyPrefix key前缀
+     * @param key       完整key
+     * @return 编码后的字节，未开启或未命中返回 null
+     */
+    public byte[] get(String keyPrefix, String key) {
+        Cache<String, byte[]> cache = caches.get(keyPrefix);
+        if (cache == null) {
+            return null;
+        }
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * 查询 key 当前的失效版本号，需在查询 redis 之前调用
+     *
+     * @param key 完整key
+     */
+    public long generation(String key) {
+        return generations.get(stripe(key));
+    }
+
+    /**
+     * 写入本地缓存，前缀未开启本地缓存或期间 key 已失效时忽略
+     *
+     * @param value      编码后的字节，写入后不能再修改
+     * @param generation 查询 redis 之前读取的失效版本号
+     */
+    public void put(String keyPrefix, String key, byte[] value, long generation) {
+        Cache<String, byte[]> cache = caches.get(keyPrefix);
+        if (cache == null || value == null || value.length == 0) {
+            return;
+        }
+        if (generation(key) != generation) {
+            return;
+        }
+        cache.put(key, value);
+        // 失效先递增版本号再清除，写入后再次检查，与失效并发时不会留下旧数据
+        if (generation(key) != generation) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * 清除当前节点的本地缓存
+     *
+     * @param key 完整key
+     */
+    public void invalidate(String key) {
+        generations.incrementAndGet(stripe(key));
+        caches.forEach((prefix, cache) -> {
+            if (key.startsWith(prefix)) {
+                cache.invalidate(key);
+            }
+        });
+    }
+
+    /**
+     * 广播失效消息，所有节点（包括当前节点）清除本地缓存
+     *
+     * @param key 完整key
+     */
+    public void publishInvalidate(String key) {
+        invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * 收到其它节点的失效消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("本地缓存失效：{}", key);
+        invalidate(key);
+    }
+}
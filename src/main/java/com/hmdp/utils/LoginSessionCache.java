@@ -0,0 +1,185 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.UserDTO;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description 登录会话的本地缓存，命中时不访问 redis
+ * token 有效期采用惰性续期：剩余时间低于阈值时才加入待续期集合，由定时任务批量执行 EXPIRE；
+ * 登出时通过 redis 发布订阅通知所有节点清除本地会话
+ * @Date 2023-05-20-09-30
+ * @Author qianzhikang
+ */
+@Slf4j
+@Component
+public class LoginSessionCache implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 本地会话的过期时间（秒），也是其它途径删除 token 后本地副本的最长残留时间
+     */
+    @Value("${hmdp.login.local-cache-seconds:60}")
+    private long localCacheSeconds;
+
+    /**
+     * 续期间隔（分钟），剩余有效期低于 LOGIN_USER_TTL 减去该值时续期
+     */
+    @Value("${hmdp.login.refresh-interval-minutes:30}")
+    private long refreshIntervalMinutes;
+
+    /**
+     * token -> 会话
+     */
+    private Cache<String, Session> sessions;
+
+    /**
+     * 待续期的 token
+     */
+    private final Set<String> pendingRefresh = ConcurrentHashMap.newKeySet();
+
+    // 批量续期的定时任务
+    private final ScheduledExecutorService TOKEN_REFRESH_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init() {
+        sessions = Caffeine.newBuilder()
+                .maximumSize(LOGIN_SESSION_CACHE_SIZE)
+                .expireAfterWrite(localCacheSeconds, TimeUnit.SECONDS)
+                .build();
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_LOGOUT_CHANNEL));
+        TOKEN_REFRESH_EXECUTOR.scheduleWithFixedDelay(this::flushRefresh, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        TOKEN_REFRESH_EXECUTOR.shutdown();
+        flushRefresh();
+    }
+
+    /**
+     * 查询登录用户
+     *
+     * @param token 登录令牌
+     * @return 未登录或已过期返回 null
+     */
+    public UserDTO get(String token) {
+        Session session = sessions.getIfPresent(token);
+        if (session == null) {
+            session = load(token);
+            if (session == null) {
+                return null;
+            }
+            sessions.put(token, session);
+        }
+        long now = System.currentTimeMillis();
+        long threshold = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL - refreshIntervalMinutes);
+        if (session.expireAt - now < threshold) {
+            // 先按续期后的时间更新，避免同一个 token 在续期完成前重复入队
+            session.expireAt = now + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+            pendingRefresh.add(token);
+        }
+        return session.user;
+    }
+
+    /**
+     * 清除所有节点的本地会话
+     */
+    public void publishInvalidate(String token) {
+        sessions.invalidate(token);
+        pendingRefresh.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_LOGOUT_CHANNEL, token);
+    }
+
+    /**
+     * 一次往返读取会话与剩余有效期
+     */
+    @SuppressWarnings("unchecked")
+    private Session load(String token) {
+        String tokenKey = LOGIN_USER_KEY + token;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hGetAll(tokenKey);
+            conn.pTtl(tokenKey);
+            return null;
+        });
+        Map<String, String> userMap = (Map<String, String>) results.get(0);
+        Long ttl = (Long) results.get(1);
+        if (userMap == null || userMap.isEmpty() || ttl == null || ttl == -2) {
+            return null;
+        }
+        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+        // -1 表示没有过期时间，按已到期处理，下次访问时补上
+        long expireAt = ttl < 0 ? 0 : System.currentTimeMillis() + ttl;
+        return new Session(userDTO, expireAt);
+    }
+
+    /**
+     * 批量续期
+     */
+    private void flushRefresh() {
+        if (pendingRefresh.isEmpty()) {
+            return;
+        }
+        List<String> tokens = new ArrayList<>(pendingRefresh);
+        pendingRefresh.removeAll(tokens);
+        try {
+            long seconds = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String token : tokens) {
+                    conn.expire(LOGIN_USER_KEY + token, seconds);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("token续期失败，数量：{}", tokens.size(), e);
+            pendingRefresh.addAll(tokens);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String token = new String(message.getBody(), StandardCharsets.UTF_8);
+        sessions.invalidate(token);
+        pendingRefresh.remove(token);
+    }
+
+    @AllArgsConstructor
+    private static class Session {
+        private final UserDTO user;
+        private volatile long expireAt;
+    }
+}
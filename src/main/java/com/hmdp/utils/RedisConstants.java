@@ -5,19 +5,79 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_LOGOUT_CHANNEL = "login:logout";
+    public static final Long LOGIN_SESSION_CACHE_SIZE = 100000L;
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+    public static final String LOGIN_REVOKE_CHANNEL = "login:revoke";
+    public static final Long LOGIN_REVOKED_SYNC_INTERVAL = 60L;
 
     public static final Long CACHE_NULL_TTL = 2L;
+    public static final String CACHE_KEY_PREFIX = "cache:";
+    public static final String LOCK_KEY_PREFIX = "lock:";
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:type:";
+    public static final String SHOP_TYPE_VERSION_KEY = "cache:type:version";
+    public static final String SHOP_TYPE_CHANGED_CHANNEL = "cache:type:changed";
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_BLOG_TTL = 30L;
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final Long LOCAL_CACHE_SHOP_TTL = 60L;
+    public static final Long LOCAL_CACHE_SHOP_SIZE = 10000L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final Long SECKILL_ORDER_MIN_IDLE = 30L;
+    public static final Long SECKILL_ORDER_MAX_DELIVERIES = 5L;
+    public static final String SECKILL_ORDER_DEAD_LETTER_SUFFIX = ":dead";
+    public static final String SECKILL_SHARDED_VOUCHER_KEY = "seckill:sharded";
+    public static final Long SECKILL_STREAM_REFRESH_SECONDS = 5L;
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked:{flush}:delta";
+    public static final String BLOG_LIKED_FLUSHING_KEY = "blog:liked:{flush}:flushing";
+    public static final String BLOG_LIKED_FLUSH_LOCK_NAME = "blog:liked:flush";
+    public static final Long BLOG_LIKED_FLUSH_LOCK_TTL = 30L;
+    public static final int BLOG_LIKED_FLUSH_BATCH_SIZE = 500;
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_REBUILDING_KEY = "blog:hot:rebuilding";
+    public static final String BLOG_HOT_READY_KEY = "blog:hot:ready";
+    public static final String BLOG_HOT_LOCK_NAME = "blog:hot";
+    public static final Long BLOG_HOT_LOCK_TTL = 300L;
+    public static final int BLOG_HOT_REBUILD_BATCH_SIZE = 1000;
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:out:";
+    public static final String FEED_BIG_V_KEY = "feed:bigv";
+    public static final String FEED_PLACEHOLDER = "0";
+    public static final double FEED_PLACEHOLDER_SCORE = -1;
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FEED_FANOUT_TASK_KEY = "feed:fanout:";
+    public static final String FEED_FANOUT_PENDING_KEY = "feed:fanout:pending";
+    public static final Long FEED_FANOUT_STALE_SECONDS = 60L;
+    public static final String FEED_FANOUT_OWNER_KEY = "feed:fanout:owner:";
+    public static final Long FEED_FANOUT_OWNER_TTL = 120L;
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_LOCK_NAME = "shop:geo";
+    public static final Long SHOP_GEO_LOCK_TTL = 300L;
+    public static final int SHOP_GEO_LOAD_BATCH_SIZE = 1000;
+    public static final String SHOP_GEO_CHANGED_CHANNEL = "shop:geo:changed";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String USER_SIGN_ARCHIVED_KEY = "sign:archived:";
+    public static final Long USER_SIGN_ARCHIVED_TTL = 90L;
+    public static final String USER_SIGN_ARCHIVE_LOCK_NAME = "sign:archive";
+    public static final Long USER_SIGN_ARCHIVE_LOCK_TTL = 600L;
+    public static final int USER_SIGN_ARCHIVE_BATCH_SIZE = 500;
+    public static final Long USER_SIGN_RETENTION_DAYS = 62L;
+    public static final String UV_SHOP_KEY = "uv:shop:";
+    public static final String UV_BLOG_KEY = "uv:blog:";
+    public static final int UV_MAX_RANGE_DAYS = 366;
 }
@@ -1,18 +1,29 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.time.Clock;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @Description redis唯一id生成器
+ * 号段模式下每个节点通过一次 INCRBY 预留一段序列号，在本地无锁分配，剩余量低于阈值时异步预取下一段
  * @Date 2023-04-25-15-10
  * @Author qianzhikang
  */
+@Slf4j
 @Component
 public class RedisIdWorker {
 
@@ -23,22 +34,173 @@ public class RedisIdWorker {
 
     private static final int COUNT_BITS = 32;
 
+    /**
+     * 序列号的最大值，超过后会覆盖时间戳
+     */
+    private static final long MAX_COUNT = (1L << COUNT_BITS) - 1;
+
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    // 异步预取号段的线程池
+    private static final ExecutorService ID_SEGMENT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * 是否开启号段模式
+     */
+    @Value("${hmdp.id.segment.enabled:true}")
+    private boolean segmentEnabled;
+
+    /**
+     * 每个号段的长度
+     */
+    @Value("${hmdp.id.segment.step:1000}")
+    private long step;
+
+    /**
+     * 号段剩余量低于该比例时预取下一段
+     */
+    @Value("${hmdp.id.segment.low-water-ratio:0.2}")
+    private double lowWaterRatio;
+
+    /**
+     * 业务前缀 -> 号段
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 时钟，测试时可以替换
+     */
+    private Clock clock = Clock.systemDefaultZone();
+
     /**
      * 生成id
      * @param keyPrefix 业务前缀
      * @return 唯一业务的id
      */
     public long nextId(String keyPrefix) {
+        if (segmentEnabled) {
+            return nextSegmentId(keyPrefix);
+        }
         // 1.生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        LocalDateTime now = LocalDateTime.now(clock);
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
         // 2.生成序列号
         // 生成自增长key
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = now.format(DATE_FORMATTER);
         // 自增长值
         long count = stringRedisTemplate.opsForValue().increment("icr" + ":" +  keyPrefix + ":" + date + ":");
+        checkCount(keyPrefix, count);
         // 时间戳左移32位
         return timestamp << COUNT_BITS | count;
     }
+
+    /**
+     * 从本地号段中分配序列号，号段用完或跨天时切换号段。
+     * 时间戳与序列号必须属于同一天：跨天瞬间仍读到前一天时间的线程使用新号段，时间戳取新一天的零点，
+     * 不会把号段切回前一天
+     */
+    private long nextSegmentId(String keyPrefix) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        while (true) {
+            long nowSecond = LocalDateTime.now(clock).toEpochSecond(ZoneOffset.UTC);
+            // 当天的 epochDay，序列号按天自增
+            long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+            Segment segment = buffer.current;
+            if (segment != null && segment.day > day) {
+                day = segment.day;
+                nowSecond = day * SECONDS_PER_DAY;
+            }
+            if (segment != null && segment.day == day) {
+                long count = segment.cursor.incrementAndGet();
+                if (count <= segment.max) {
+                    checkCount(keyPrefix, count);
+                    // 恰好到达低水位的线程负责预取，每个号段只触发一次
+                    if (count == segment.prefetchAt) {
+                        prefetch(buffer, day);
+                    }
+                    return (nowSecond - BEGIN_TIMESTAMP) << COUNT_BITS | count;
+                }
+            }
+            switchSegment(buffer, segment, day);
+        }
+    }
+
+    /**
+     * 序列号只占低 32 位，超出时拒绝生成，避免覆盖时间戳产生重复id
+     */
+    private static void checkCount(String keyPrefix, long count) {
+        if (count > MAX_COUNT) {
+            throw new IllegalStateException("当天序列号已用尽：" + keyPrefix);
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, long day) {
+        ID_SEGMENT_EXECUTOR.execute(() -> {
+            try {
+                buffer.next = allocate(buffer.keyPrefix, day);
+            } catch (Exception e) {
+                log.error("预取号段失败：{}", buffer.keyPrefix, e);
+            }
+        });
+    }
+
+    private void switchSegment(SegmentBuffer buffer, Segment stale, long day) {
+        synchronized (buffer) {
+            Segment current = buffer.current;
+            if (current != stale) {
+                // 其它线程已经切换
+                return;
+            }
+            // 加锁期间可能已经跨天，按最新的日期切换；当前号段已是更晚的一天时不切换
+            day = Math.max(day, Math.floorDiv(LocalDateTime.now(clock).toEpochSecond(ZoneOffset.UTC), SECONDS_PER_DAY));
+            if (current != null && current.day > day) {
+                return;
+            }
+            Segment next = buffer.next;
+            buffer.next = null;
+            // 预取的号段必须是当天的，且在当前号段之后，保证单节点内id递增
+            if (next == null || next.day != day || (stale != null && next.start < stale.max)) {
+                next = allocate(buffer.keyPrefix, day);
+            }
+            buffer.current = next;
+        }
+    }
+
+    /**
+     * 通过一次 INCRBY 预留 (max - step, max] 的序列号
+     */
+    private Segment allocate(String keyPrefix, long day) {
+        String date = LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+        Long max = stringRedisTemplate.opsForValue().increment("icr" + ":" + keyPrefix + ":" + date + ":", step);
+        long lowWater = Math.max((long) (step * lowWaterRatio), 1L);
+        return new Segment(day, max - step, max, max - lowWater);
+    }
+
+    private static class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile Segment next;
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+
+    private static class Segment {
+        private final long day;
+        private final long start;
+        private final long max;
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+
+        private Segment(long day, long start, long max, long prefetchAt) {
+            this.day = day;
+            this.start = start;
+            this.max = max;
+            this.prefetchAt = prefetchAt;
+            this.cursor = new AtomicLong(start);
+        }
+    }
 }
@@ -1,15 +1,11 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @Description 刷新token
@@ -17,10 +13,13 @@ import java.util.concurrent.TimeUnit;
  * @Author qianzhikang
  */
 public class RefreshTokenInterceptor implements HandlerInterceptor {
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    private SignedTokenManager signedTokenManager;
+
+    public RefreshTokenInterceptor(LoginSessionCache loginSessionCache, SignedTokenManager signedTokenManager) {
+        this.loginSessionCache = loginSessionCache;
+        this.signedTokenManager = signedTokenManager;
     }
 
     @Override
@@ -29,16 +28,15 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
            return true;
         }
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(RedisConstants.LOGIN_USER_KEY + token);
-        if (userMap.isEmpty()) {
+        // 签名 token 在本地校验；随机 token 优先查询本地会话，有效期由会话缓存惰性批量续期
+        UserDTO userDTO = signedTokenManager.isSignedToken(token)
+                ? signedTokenManager.verify(token)
+                : loginSessionCache.get(token);
+        if (userDTO == null) {
             return true;
         }
-        // 填充 UserDto
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         // 保存到线程池
         UserHolder.saveUser(userDTO);
-        // 刷新token有效期
-        stringRedisTemplate.expire(RedisConstants.LOGIN_USER_KEY + token, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
         // 有用户，则放行
         return true;
     }
@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * @Description 秒杀券本地售罄标记，售罄后的请求直接在本节点拒绝，不再执行 lua 脚本。
+ * 售罄通过 redis 发布订阅同步到所有节点；标记超过复查间隔后每个节点只放行一次请求到 redis 复查，
+ * 直接修改 redis 库存等情况下可以自动恢复
+ * @Date 2023-05-17-14-00
+ * @Author qianzhikang
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutFlags implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 售罄标记的复查间隔（毫秒）
+     */
+    @Value("${hmdp.seckill.sold-out-recheck-millis:1000}")
+    private long recheckMillis;
+
+    /**
+     * 优惠券id -> 标记售罄的时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 是否已售罄，标记超过复查间隔时只有更新标记时间成功的请求返回 false 到 redis 复查，
+     * 其余并发请求仍然拒绝，直到复查结果清除或刷新标记
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long time = soldOut.get(voucherId);
+        if (time == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - time < recheckMillis) {
+            return true;
+        }
+        return !soldOut.replace(voucherId, time, now);
+    }
+
+    /**
+     * 标记售罄并通知所有节点
+     */
+    public void markSoldOut(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis());
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 复查时下单成功，清除当前节点的售罄标记，其它节点到期后各自复查
+     */
+    public void markAvailable(Long voucherId) {
+        // 没有标记时只读不写
+        if (soldOut.containsKey(voucherId)) {
+            soldOut.remove(voucherId);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        log.debug("秒杀券售罄：{}", voucherId);
+        soldOut.put(voucherId, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description 秒杀库存分片，将一张优惠券的库存、下单用户集合与订单队列拆分到多个分片，
+ * 分片 key 使用 hash tag {优惠券id:分片号}，同一分片的 key 落在同一个槽位，可以在一个 lua 脚本中操作，
+ * 不同优惠券、不同分片分散到集群的不同槽位。
+ * 每张分片秒杀券的分片队列各不相同，优惠券id登记在 seckill:sharded 中，由消费者定时发现
+ * @Date 2023-05-16-10-10
+ * @Author qianzhikang
+ */
+@Component
+public class SeckillStockShards {
+
+    /**
+     * 分片数，小于等于 1 时不分片；所有节点必须一致，且已有秒杀券时不能修改
+     */
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int shards;
+
+    public boolean isEnabled() {
+        return shards > 1;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * 用户所属分片，一人一单的判断只在该分片进行
+     */
+    public int homeShard(Long userId) {
+        return Math.floorMod(Long.hashCode(userId), shards);
+    }
+
+    /**
+     * 分片库存key，seckill:stock:{10:3}
+     */
+    public String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + hashTag(voucherId, shard);
+    }
+
+    /**
+     * 分片下单用户key，seckill:order:{10:3}
+     */
+    public String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + hashTag(voucherId, shard);
+    }
+
+    /**
+     * 分片订单队列key，stream.orders:{10:3}
+     */
+    public String streamKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_STREAM_KEY + ":" + hashTag(voucherId, shard);
+    }
+
+    /**
+     * 一张优惠券的全部分片订单队列
+     */
+    public List<String> streamKeys(Long voucherId) {
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(streamKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    private static String hashTag(Long voucherId, int shard) {
+        return "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 将库存平均拆分到各分片，余数分给前几个分片
+     */
+    public int[] split(int stock) {
+        int[] stocks = new int[shards];
+        for (int i = 0; i < shards; i++) {
+            stocks[i] = stock / shards + (i < stock % shards ? 1 : 0);
+        }
+        return stocks;
+    }
+}
@@ -0,0 +1,432 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CHANGED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_LOAD_BATCH_SIZE;
+
+/**
+ * @Description 店铺坐标的进程内网格索引，按店铺类型划分，经纬度按固定间隔切分为网格，
+ * 每个网格的店铺id与坐标存放在基本类型数组中，写入时复制，查询无锁且不访问网络。
+ * 启动时从数据库构建并定时全量重建，店铺新增或修改时本节点直接更新，并通过发布订阅通知其它节点
+ * @Date 2023-05-29-10-20
+ * @Author qianzhikang
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements MessageListener {
+
+    /**
+     * 网格边长（度），约 1.1 公里
+     */
+    private static final double CELL_DEGREES = 0.01;
+
+    /**
+     * 与 redis GEO 相同的地球半径（米），两者计算的距离一致
+     */
+    private static final double EARTH_RADIUS_METERS = 6372797.560856;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS_METERS;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 是否开启进程内索引，关闭时附近店铺只查询 redis GEO
+     */
+    @Value("${hmdp.shop.geo-index.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 全量重建间隔（分钟），兜底丢失的变更通知
+     */
+    @Value("${hmdp.shop.geo-index.rebuild-minutes:10}")
+    private long rebuildMinutes;
+
+    /**
+     * 店铺类型 -> 网格
+     */
+    private volatile Map<Long, Grid> grids = new ConcurrentHashMap<>();
+
+    /**
+     * 店铺id -> 当前位置，用于移动或删除
+     */
+    private volatile Map<Long, Location> locations = new ConcurrentHashMap<>();
+
+    /**
+     * 全量重建期间的变更，店铺id -> 最新位置（null 表示移除），替换前重放到新索引，避免被扫描结果覆盖。
+     * 不在重建时为 null，只在持有索引锁时读写
+     */
+    private Map<Long, Location> pending;
+
+    private volatile boolean ready;
+
+    // 定时全量重建
+    private final ScheduledExecutorService GEO_INDEX_REBUILD_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SHOP_GEO_CHANGED_CHANNEL));
+        rebuild();
+        GEO_INDEX_REBUILD_EXECUTOR.scheduleWithFixedDelay(this::rebuild, rebuildMinutes, rebuildMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        GEO_INDEX_REBUILD_EXECUTOR.shutdown();
+    }
+
+    /**
+     * 索引是否可用
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 查询距离最近的店铺
+     *
+     * @param typeId    店铺类型
+     * @param x         经度
+     * @param y         纬度
+     * @param k         最多返回的数量
+     * @param maxMeters 最大距离（米）
+     * @return 按距离升序排列
+     */
+    public List<Hit> nearest(Long typeId, double x, double y, int k, double maxMeters) {
+        Grid grid = grids.get(typeId);
+        if (grid == null || k <= 0) {
+            return new ArrayList<>();
+        }
+        // 距离最大的在堆顶
+        PriorityQueue<Hit> heap = new PriorityQueue<>(k + 1, Comparator.comparingDouble(Hit::getDistance).reversed());
+        int cx = cell(x);
+        int cy = cell(y);
+        int maxRing = Math.max(Math.max(cx - grid.minX, grid.maxX - cx), Math.max(cy - grid.minY, grid.maxY - cy));
+        // 估算 maxMeters 覆盖的圈数，只用于选择扫描方式，网格宽度按覆盖范围内的最高纬度计算
+        int estimatedRing = maxRing;
+        if (maxMeters < Double.MAX_VALUE) {
+            double maxLatitude = Math.min(Math.abs(y) + maxMeters / METERS_PER_DEGREE + CELL_DEGREES, 90);
+            double cellMeters = CELL_DEGREES * METERS_PER_DEGREE * Math.cos(Math.toRadians(maxLatitude));
+            if (cellMeters > 0) {
+                estimatedRing = (int) Math.min(maxRing, Math.ceil(maxMeters / cellMeters));
+            }
+        }
+        if ((long) (2 * estimatedRing + 1) * (2 * estimatedRing + 1) > grid.cells.size()) {
+            // 需要扫描的网格比已有网格多，直接遍历已有网格
+            for (Cell cell : grid.cells.values()) {
+                collect(cell, x, y, k, maxMeters, heap);
+            }
+        } else {
+            // 由近及远逐圈扫描，第 ring 圈之外的店铺距离不小于 ringMeters
+            for (int ring = 0; ring <= maxRing; ring++) {
+                for (int i = cx - ring; i <= cx + ring; i++) {
+                    for (int j = cy - ring; j <= cy + ring; j++) {
+                        if (Math.abs(i - cx) != ring && Math.abs(j - cy) != ring) {
+                            continue;
+                        }
+                        Cell cell = grid.cells.get(cellKey(i, j));
+                        if (cell != null) {
+                            collect(cell, x, y, k, maxMeters, heap);
+                        }
+                    }
+                }
+                double ringMeters = ringMeters(x, y, cx, cy, ring);
+                if (ringMeters > maxMeters || (heap.size() == k && heap.peek().distance <= ringMeters)) {
+                    break;
+                }
+            }
+        }
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort(Comparator.comparingDouble(Hit::getDistance));
+        return hits;
+    }
+
+    /**
+     * 已扫描的前 ring 圈之外的店铺与查询点的最小距离（米）。
+     * 纬度超出这些圈的店铺至少相差剩余的纬度；纬度在其中的店铺经度方向的距离随纬度升高而缩短，
+     * 按这些圈覆盖的最高纬度计算 haversine 的下界
+     */
+    private static double ringMeters(double x, double y, int cx, int cy, int ring) {
+        double south = (cy - ring) * CELL_DEGREES;
+        double north = (cy + ring + 1) * CELL_DEGREES;
+        double latitudeMeters = Math.min(y - south, north - y) * METERS_PER_DEGREE;
+        double longitude = Math.min(Math.min(x - (cx - ring) * CELL_DEGREES, (cx + ring + 1) * CELL_DEGREES - x), 180);
+        double maxLatitude = Math.min(Math.max(Math.abs(south), Math.abs(north)), 90);
+        double cos = Math.max(Math.cos(Math.toRadians(y)) * Math.cos(Math.toRadians(maxLatitude)), 0);
+        double longitudeMeters = 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(Math.sqrt(cos) * Math.sin(Math.toRadians(longitude) / 2), 1));
+        return Math.min(latitudeMeters, longitudeMeters);
+    }
+
+    private static void collect(Cell cell, double x, double y, int k, double maxMeters, PriorityQueue<Hit> heap) {
+        for (int i = 0; i < cell.ids.length; i++) {
+            double distance = distance(x, y, cell.xs[i], cell.ys[i]);
+            if (distance > maxMeters) {
+                continue;
+            }
+            if (heap.size() < k) {
+                heap.add(new Hit(cell.ids[i], distance));
+            } else if (distance < heap.peek().distance) {
+                heap.poll();
+                heap.add(new Hit(cell.ids[i], distance));
+            }
+        }
+    }
+
+    /**
+     * 店铺新增或修改后更新本节点索引，并通知其它节点
+     */
+    public void publish(Shop shop) {
+        if (!enabled) {
+            return;
+        }
+        put(shop.getId(), shop.getTypeId(), shop.getX(), shop.getY());
+        stringRedisTemplate.convertAndSend(SHOP_GEO_CHANGED_CHANNEL,
+                shop.getId() + "," + shop.getTypeId() + "," + shop.getX() + "," + shop.getY());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] fields = new String(message.getBody(), StandardCharsets.UTF_8).split(",");
+        put(Long.valueOf(fields[0]), parseLong(fields[1]), parseDouble(fields[2]), parseDouble(fields[3]));
+    }
+
+    private static Long parseLong(String value) {
+        return "null".equals(value) ? null : Long.valueOf(value);
+    }
+
+    private static Double parseDouble(String value) {
+        return "null".equals(value) ? null : Double.valueOf(value);
+    }
+
+    /**
+     * 写入或移动店铺，类型或坐标为空时从索引中移除
+     */
+    private synchronized void put(Long id, Long typeId, Double x, Double y) {
+        Location location = typeId == null || x == null || y == null ? null : new Location(typeId, x, y);
+        apply(grids, locations, id, location);
+        if (pending != null) {
+            pending.put(id, location);
+        }
+    }
+
+    private static void apply(Map<Long, Grid> grids, Map<Long, Location> locations, Long id, Location location) {
+        Location old = locations.remove(id);
+        if (old != null) {
+            Grid grid = grids.get(old.typeId);
+            if (grid != null) {
+                grid.remove(id, old.x, old.y);
+            }
+        }
+        if (location == null) {
+            return;
+        }
+        grids.computeIfAbsent(location.typeId, t -> new Grid()).add(id, location.x, location.y);
+        locations.put(id, location);
+    }
+
+    /**
+     * 按 id 分批扫描店铺构建新索引，重放扫描期间的变更后整体替换
+     */
+    private void rebuild() {
+        synchronized (this) {
+            pending = new HashMap<>();
+        }
+        try {
+            Map<Long, Grid> newGrids = new ConcurrentHashMap<>();
+            Map<Long, Location> newLocations = new ConcurrentHashMap<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SHOP_GEO_LOAD_BATCH_SIZE));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                        newGrids.computeIfAbsent(shop.getTypeId(), t -> new Grid()).add(shop.getId(), shop.getX(), shop.getY());
+                        newLocations.put(shop.getId(), new Location(shop.getTypeId(), shop.getX(), shop.getY()));
+                    }
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            synchronized (this) {
+                // 扫描期间的变更可能晚于扫描到的数据
+                pending.forEach((id, location) -> apply(newGrids, newLocations, id, location));
+                grids = newGrids;
+                locations = newLocations;
+            }
+            ready = true;
+            log.info("店铺坐标索引构建完成，店铺数：{}，类型数：{}", newLocations.size(), newGrids.size());
+        } catch (Exception e) {
+            log.error("店铺坐标索引构建失败", e);
+        } finally {
+            synchronized (this) {
+                pending = null;
+            }
+        }
+    }
+
+    /**
+     * 球面距离（米），与 redis GEO 一致使用 haversine 公式
+     */
+    private static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long cellKey(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 查询结果
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Hit {
+        private final long id;
+        private final double distance;
+    }
+
+    @AllArgsConstructor
+    private static class Location {
+        private final Long typeId;
+        private final double x;
+        private final double y;
+    }
+
+    /**
+     * 一个类型的网格，只在持有索引锁时写入
+     */
+    private static class Grid {
+        private final Map<Long, Cell> cells = new ConcurrentHashMap<>();
+        /**
+         * 已有网格的范围，只扩大不缩小，用于限制扫描圈数
+         */
+        private volatile int minX = Integer.MAX_VALUE;
+        private volatile int maxX = Integer.MIN_VALUE;
+        private volatile int minY = Integer.MAX_VALUE;
+        private volatile int maxY = Integer.MIN_VALUE;
+
+        private void add(long id, double x, double y) {
+            int cx = cell(x);
+            int cy = cell(y);
+            cells.merge(cellKey(cx, cy), Cell.of(id, x, y), Cell::concat);
+            minX = Math.min(minX, cx);
+            maxX = Math.max(maxX, cx);
+            minY = Math.min(minY, cy);
+            maxY = Math.max(maxY, cy);
+        }
+
+        private void remove(long id, double x, double y) {
+            cells.computeIfPresent(cellKey(cell(x), cell(y)), (key, cell) -> cell.without(id));
+        }
+    }
+
+    /**
+     * 一个网格内的店铺，不可变，修改时复制
+     */
+    @AllArgsConstructor
+    private static class Cell {
+        private final long[] ids;
+        private final double[] xs;
+        private final double[] ys;
+
+        private static Cell of(long id, double x, double y) {
+            return new Cell(new long[]{id}, new double[]{x}, new double[]{y});
+        }
+
+        private Cell concat(Cell other) {
+            int n = ids.length;
+            int m = other.ids.length;
+            long[] newIds = new long[n + m];
+            double[] newXs = new double[n + m];
+            double[] newYs = new double[n + m];
+            System.arraycopy(ids, 0, newIds, 0, n);
+            System.arraycopy(other.ids, 0, newIds, n, m);
+            System.arraycopy(xs, 0, newXs, 0, n);
+            System.arraycopy(other.xs, 0, newXs, n, m);
+            System.arraycopy(ys, 0, newYs, 0, n);
+            System.arraycopy(other.ys, 0, newYs, n, m);
+            return new Cell(newIds, newXs, newYs);
+        }
+
+        /**
+         * @return 删除后为空返回 null，网格随之移除
+         */
+        private Cell without(long id) {
+            int index = -1;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return this;
+            }
+            if (ids.length == 1) {
+                return null;
+            }
+            long[] newIds = new long[ids.length - 1];
+            double[] newXs = new double[ids.length - 1];
+            double[] newYs = new double[ids.length - 1];
+            for (int i = 0, j = 0; i < ids.length; i++) {
+                if (i != index) {
+                    newIds[j] = ids[i];
+                    newXs[j] = xs[i];
+                    newYs[j] = ys[i];
+                    j++;
+                }
+            }
+            return new Cell(newIds, newXs, newYs);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.jwt.JWT;
+import cn.hutool.jwt.signers.JWTSigner;
+import cn.hutool.jwt.signers.JWTSignerUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * @Description 自包含的签名 token（HS256 JWT），载荷为 UserDTO 字段与过期时间，校验在本地完成。
+ * redis 中只保存已登出 token 的 jti（zset，分值为 token 过期时间），各节点在本地保留一份，
+ * 启动与定时任务全量同步，登出时通过发布订阅增量同步
+ * @Date 2023-05-21-10-00
+ * @Author qianzhikang
+ */
+@Slf4j
+@Component
+public class SignedTokenManager implements MessageListener {
+
+    private static final String TOKEN_MODE_SIGNED = "signed";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 登录令牌模式，redis：随机 token，会话保存在 redis；signed：签名 token
+     */
+    @Value("${hmdp.login.token-mode:redis}")
+    private String tokenMode;
+
+    /**
+     * 签名密钥，所有节点必须一致
+     */
+    @Value("${hmdp.login.token-secret:}")
+    private String tokenSecret;
+
+    private JWTSigner signer;
+
+    /**
+     * 已登出的 jti -> token 过期时间
+     */
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    // 定时同步、清理登出记录
+    private final ScheduledExecutorService REVOKED_SYNC_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init() {
+        if (StrUtil.isBlank(tokenSecret)) {
+            if (isEnabled()) {
+                throw new IllegalStateException("签名 token 模式需要配置 hmdp.login.token-secret");
+            }
+            // 未配置密钥时不接受任何签名 token
+            return;
+        }
+        signer = JWTSignerUtil.hs256(tokenSecret.getBytes(StandardCharsets.UTF_8));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_REVOKE_CHANNEL));
+        syncRevoked();
+        REVOKED_SYNC_EXECUTOR.scheduleWithFixedDelay(this::syncRevoked,
+                LOGIN_REVOKED_SYNC_INTERVAL, LOGIN_REVOKED_SYNC_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        REVOKED_SYNC_EXECUTOR.shutdown();
+    }
+
+    /**
+     * 登录时是否签发签名 token
+     */
+    public boolean isEnabled() {
+        return TOKEN_MODE_SIGNED.equals(tokenMode);
+    }
+
+    /**
+     * 是否为签名 token，随机 token 不含 '.'，切换模式后旧 token 仍可使用
+     */
+    public boolean isSignedToken(String token) {
+        return signer != null && token.indexOf('.') > 0;
+    }
+
+    /**
+     * 签发 token
+     */
+    public String issue(UserDTO userDTO) {
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        return JWT.create()
+                .setJWTId(UUID.randomUUID().toString(true))
+                .setExpiresAt(new Date(expireAt))
+                .setPayload("id", userDTO.getId())
+                .setPayload("nickName", userDTO.getNickName())
+                .setPayload("icon", userDTO.getIcon())
+                .sign(signer);
+    }
+
+    /**
+     * 校验 token
+     *
+     * @return 签名错误、已过期或已登出返回 null
+     */
+    public UserDTO verify(String token) {
+        JWT jwt;
+        try {
+            jwt = JWT.of(token);
+            if (!jwt.verify(signer)) {
+                return null;
+            }
+        } catch (Exception e) {
+            log.debug("token格式错误：{}", e.getMessage());
+            return null;
+        }
+        Long exp = Convert.toLong(jwt.getPayload(JWT.EXPIRES_AT));
+        if (exp == null || TimeUnit.SECONDS.toMillis(exp) <= System.currentTimeMillis()) {
+            return null;
+        }
+        String jti = Convert.toStr(jwt.getPayload(JWT.JWT_ID));
+        if (jti == null || revoked.containsKey(jti)) {
+            return null;
+        }
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(Convert.toLong(jwt.getPayload("id")));
+        userDTO.setNickName(Convert.toStr(jwt.getPayload("nickName")));
+        userDTO.setIcon(Convert.toStr(jwt.getPayload("icon")));
+        return userDTO;
+    }
+
+    /**
+     * 登出，记录 jti 直到 token 过期，并通知所有节点
+     */
+    public void revoke(String token) {
+        if (verify(token) == null) {
+            return;
+        }
+        JWT jwt = JWT.of(token);
+        String jti = Convert.toStr(jwt.getPayload(JWT.JWT_ID));
+        long expireAt = TimeUnit.SECONDS.toMillis(Convert.toLong(jwt.getPayload(JWT.EXPIRES_AT)));
+        revoked.put(jti, expireAt);
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, jti, expireAt);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKE_CHANNEL, jti + ":" + expireAt);
+    }
+
+    /**
+     * 从 redis 全量同步登出记录，并清理已过期的记录
+     */
+    private void syncRevoked() {
+        try {
+            long now = System.currentTimeMillis();
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, now);
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(LOGIN_REVOKED_KEY, now, Double.MAX_VALUE);
+            if (tuples != null) {
+                for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                    revoked.put(tuple.getValue(), tuple.getScore().longValue());
+                }
+            }
+            revoked.values().removeIf(expireAt -> expireAt <= now);
+        } catch (Exception e) {
+            log.error("同步登出记录失败", e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.lastIndexOf(':');
+        revoked.put(body.substring(0, index), Long.valueOf(body.substring(index + 1)));
+    }
+}
@@ -1,7 +1,6 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
-import jdk.internal.org.objectweb.asm.tree.analysis.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
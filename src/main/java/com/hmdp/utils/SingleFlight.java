@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * @Description 进程内请求合并，同一个 key 的并发调用只执行一次，其余调用共享同一个结果
+ * @Date 2023-05-11-14-20
+ * @Author qianzhikang
+ */
+public class SingleFlight {
+
+    /**
+     * key -> 正在执行的调用
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 同步执行，第一个到达的线程执行 supplier，其余线程等待并共享其结果
+     *
+     * @param key      合并的key
+     * @param supplier 执行逻辑
+     * @param <R>      返回值类型
+     * @return 执行结果
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> supplier) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, future);
+        if (existing != null) {
+            // 已有调用在执行，等待其结果
+            return (R) join(existing);
+        }
+        try {
+            R r = supplier.get();
+            future.complete(r);
+            return r;
+        } catch (Throwable e) {
+            // Error 也要结束等待中的调用，否则它们会一直阻塞
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * 异步执行，同一个 key 已有任务在执行时不再提交
+     *
+     * @param key      合并的key
+     * @param executor 线程池
+     * @param task     执行逻辑
+     * @return 是否提交了新任务
+     */
+    public boolean submit(String key, Executor executor, Runnable task) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        if (calls.putIfAbsent(key, future) != null) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                    future.complete(null);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    calls.remove(key, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            calls.remove(key, future);
+            throw e;
+        }
+        return true;
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
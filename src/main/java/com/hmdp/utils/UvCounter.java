@@ -0,0 +1,223 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.UV_MAX_RANGE_DAYS;
+
+/**
+ * @Description 基于 HyperLogLog 的独立访客统计，每个对象每天一个 key：{前缀}{id}:{yyyyMMdd}，
+ * id 作为 hash tag，同一对象的所有日期位于同一个槽，可以一次 PFCOUNT 多天。
+ * 访问记录先写入本地缓冲区并去重，由定时任务通过 pipeline 批量 PFADD
+ * @Date 2023-05-31-09-30
+ * @Author qianzhikang
+ */
+@Slf4j
+@Component
+public class UvCounter {
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 缓冲区写入 redis 的间隔（毫秒）
+     */
+    @Value("${hmdp.uv.flush-interval-millis:1000}")
+    private long flushIntervalMillis;
+
+    /**
+     * 缓冲区的最大访问记录数，超过后立即写入
+     */
+    @Value("${hmdp.uv.buffer-size:100000}")
+    private int bufferSize;
+
+    /**
+     * 每天的统计保留天数
+     */
+    @Value("${hmdp.uv.retention-days:90}")
+    private long retentionDays;
+
+    /**
+     * 可信的反向代理地址，只有请求来自这些地址时才读取转发头，否则客户端可以伪造任意ip刷访客数
+     */
+    @Value("${hmdp.uv.trusted-proxies:127.0.0.1,0:0:0:0:0:0:0:1}")
+    private Set<String> trustedProxies;
+
+    /**
+     * key -> 待写入的访客
+     */
+    private final Map<String, Set<String>> buffer = new ConcurrentHashMap<>();
+
+    private final AtomicInteger buffered = new AtomicInteger();
+
+    /**
+     * 是否已提交缓冲区满时的写入任务
+     */
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+
+    // 定时写入访问记录
+    private final ScheduledExecutorService UV_FLUSH_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init() {
+        UV_FLUSH_EXECUTOR.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        UV_FLUSH_EXECUTOR.shutdown();
+        flush();
+    }
+
+    /**
+     * 记录当前访客，登录用户按用户id，未登录按客户端ip
+     *
+     * @param keyPrefix key前缀
+     * @param id        被访问的对象id
+     */
+    public void record(String keyPrefix, Long id) {
+        String visitor = currentVisitor();
+        if (visitor == null) {
+            return;
+        }
+        String key = dayKey(keyPrefix, id, LocalDate.now());
+        // compute 与 flush 中的 remove 对同一个 key 互斥，不会丢失记录
+        buffer.compute(key, (k, visitors) -> {
+            if (visitors == null) {
+                visitors = new HashSet<>();
+            }
+            if (visitors.add(visitor)) {
+                buffered.incrementAndGet();
+            }
+            return visitors;
+        });
+        if (buffered.get() >= bufferSize && flushPending.compareAndSet(false, true)) {
+            UV_FLUSH_EXECUTOR.execute(this::flush);
+        }
+    }
+
+    /**
+     * 日期范围是否有效，开始不晚于结束且不超过 UV_MAX_RANGE_DAYS 天
+     */
+    public static boolean isValidRange(LocalDate begin, LocalDate end) {
+        return !end.isBefore(begin) && ChronoUnit.DAYS.between(begin, end) < UV_MAX_RANGE_DAYS;
+    }
+
+    /**
+     * 统计日期范围内的独立访客数，一次 PFCOUNT 多个 key，返回并集的基数
+     *
+     * @param keyPrefix key前缀
+     * @param id        对象id
+     * @param begin     开始日期（含）
+     * @param end       结束日期（含）
+     */
+    public long count(String keyPrefix, Long id, LocalDate begin, LocalDate end) {
+        List<String> keys = new ArrayList<>();
+        for (LocalDate day = begin; !day.isAfter(end); day = day.plusDays(1)) {
+            keys.add(dayKey(keyPrefix, id, day));
+        }
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(keys.toArray(new String[0]));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 一次 pipeline 写入缓冲区中的全部访问记录
+     */
+    private synchronized void flush() {
+        flushPending.set(false);
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Map<String, Set<String>> batch = new HashMap<>();
+        for (String key : buffer.keySet()) {
+            Set<String> visitors = buffer.remove(key);
+            if (visitors != null) {
+                batch.put(key, visitors);
+                buffered.addAndGet(-visitors.size());
+            }
+        }
+        long seconds = TimeUnit.DAYS.toSeconds(retentionDays);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                batch.forEach((key, visitors) -> {
+                    conn.pfAdd(key, visitors.toArray(new String[0]));
+                    conn.expire(key, seconds);
+                });
+                return null;
+            });
+        } catch (Exception e) {
+            // 统计允许少量丢失，不再重试，避免缓冲区持续增长
+            log.error("写入访问记录失败，丢弃 key 数：{}", batch.size(), e);
+        }
+    }
+
+    private static String dayKey(String keyPrefix, Long id, LocalDate day) {
+        return keyPrefix + "{" + id + "}:" + day.format(DAY_FORMATTER);
+    }
+
+    private String currentVisitor() {
+        UserDTO user = UserHolder.getUser();
+        if (user != null) {
+            return user.getId().toString();
+        }
+        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
+        return attributes == null ? null : "ip:" + clientIp(attributes.getRequest(), trustedProxies);
+    }
+
+    /**
+     * 客户端ip。remoteAddr 不是可信代理时直接使用，不读取客户端可以伪造的转发头；
+     * 经 nginx 转发时取 X-Forwarded-For 中从右往左第一个不是可信代理的地址（nginx 追加在最右侧），
+     * 其次是 nginx 设置的 X-Real-IP
+     */
+    static String clientIp(HttpServletRequest request, Set<String> trustedProxies) {
+        String remoteAddr = request.getRemoteAddr();
+        if (!trustedProxies.contains(remoteAddr)) {
+            return remoteAddr;
+        }
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (StrUtil.isNotBlank(forwardedFor)) {
+            List<String> hops = StrUtil.splitTrim(forwardedFor, ',');
+            for (int i = hops.size() - 1; i >= 0; i--) {
+                if (!trustedProxies.contains(hops.get(i))) {
+                    return hops.get(i);
+                }
+            }
+        }
+        String realIp = request.getHeader("X-Real-IP");
+        if (StrUtil.isNotBlank(realIp)) {
+            return realIp.trim();
+        }
+        return remoteAddr;
+    }
+}
@@ -0,0 +1,20 @@
+---
+--- Created by qianzhikang.
+--- DateTime: 2023/5/27 15:20
+--- 推送笔记到收件箱，收件箱不存在（用户长期未读已过期）时不写入，由读取时重建
+--- key：收件箱key
+local inboxKey = KEYS[1]
+--- 参数：发布时间戳
+local timestamp = ARGV[1]
+--- 参数：笔记id
+local blogId = ARGV[2]
+--- 参数：收件箱保留的最大条数
+local maxSize = tonumber(ARGV[3])
+
+if (redis.call('exists', inboxKey) == 0) then
+    return 0
+end
+redis.call('zadd', inboxKey, timestamp, blogId)
+-- 只保留最新的 maxSize 条
+redis.call('zremrangebyrank', inboxKey, 0, -maxSize - 1)
+return 1
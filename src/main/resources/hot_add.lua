@@ -0,0 +1,18 @@
+---
+--- Created by qianzhikang.
+--- DateTime: 2023/5/24 15:40
+--- 新笔记加入热门榜单，榜单构建中时同时写入临时榜单，替换后不会丢失
+--- key：热门榜单key
+local hotKey = KEYS[1]
+--- key：构建中的临时榜单key
+local tempKey = KEYS[2]
+--- 参数：分值
+local score = ARGV[1]
+--- 参数：笔记id
+local blogId = ARGV[2]
+
+redis.call('zadd', hotKey, score, blogId)
+if (redis.call('exists', tempKey) == 1) then
+    redis.call('zadd', tempKey, score, blogId)
+end
+return 1
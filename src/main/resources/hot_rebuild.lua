@@ -0,0 +1,20 @@
+---
+--- Created by qianzhikang.
+--- DateTime: 2023/5/24 15:30
+--- 将一批笔记写入构建中的临时榜单，点赞数为数据库中的点赞数加上尚未写回的增量
+--- 构建期间暂停写回，与点赞脚本互斥执行：写入前的点赞已计入增量，写入后的点赞由点赞脚本同步到临时榜单，不会丢失或重复计算
+--- key：临时榜单key
+local tempKey = KEYS[1]
+--- key：待写回增量
+local deltaKey = KEYS[2]
+--- key：处理中增量
+local flushingKey = KEYS[3]
+--- ARGV：每篇笔记依次为 笔记id、数据库中的点赞数、时间分值
+for j = 1, #ARGV, 3 do
+    local blogId = ARGV[j]
+    local liked = tonumber(ARGV[j + 1])
+        + tonumber(redis.call('hget', deltaKey, blogId) or 0)
+        + tonumber(redis.call('hget', flushingKey, blogId) or 0)
+    redis.call('zadd', tempKey, liked + tonumber(ARGV[j + 2]), blogId)
+end
+return #ARGV / 3
@@ -0,0 +1,37 @@
+---
+--- Created by qianzhikang.
+--- DateTime: 2023/5/24 10:10
+--- 点赞/取消点赞，原子地切换用户的点赞状态，并更新热门榜单与待写回的点赞数增量
+--- key：笔记点赞用户key
+local likedKey = KEYS[1]
+--- key：热门榜单key
+local hotKey = KEYS[2]
+--- key：点赞数待写回增量key（hash，笔记id -> 增量）
+local deltaKey = KEYS[3]
+--- key：构建中的临时榜单key
+local tempKey = KEYS[4]
+--- 参数：笔记id
+local blogId = ARGV[1]
+--- 参数：用户id
+local userId = ARGV[2]
+--- 参数：点赞时间
+local now = ARGV[3]
+
+--- 已点赞则取消，未点赞则点赞
+local delta = 1
+if (redis.call('zscore', likedKey, userId)) then
+    redis.call('zrem', likedKey, userId)
+    delta = -1
+else
+    redis.call('zadd', likedKey, now, userId)
+end
+--- 更新热门榜单
+redis.call('zincrby', hotKey, delta, blogId)
+--- 榜单构建中且已写入该笔记时同步更新，尚未写入的笔记构建时会读取最新的待写回增量
+if (redis.call('zscore', tempKey, blogId)) then
+    redis.call('zincrby', tempKey, delta, blogId)
+end
+--- 累加待写回的增量，数据库中的点赞数可能包含点赞用户集合中没有的记录，不能用集合大小覆盖
+redis.call('hincrby', deltaKey, blogId, delta)
+--- 返回 1：点赞  -1：取消点赞
+return delta
@@ -0,0 +1,16 @@
+---
+--- Created by qianzhikang.
+--- DateTime: 2023/5/23 14:20
+--- 将待写回的点赞数增量合并到处理中的增量，返回处理中的全部增量 [笔记id, 增量, ...]
+--- 上次写回中断时处理中的增量不为空，会与本次一起重新处理
+--- key：待写回增量
+local deltaKey = KEYS[1]
+--- key：处理中增量
+local flushingKey = KEYS[2]
+
+local deltas = redis.call('hgetall', deltaKey)
+for i = 1, #deltas, 2 do
+    redis.call('hincrby', flushingKey, deltas[i], deltas[i + 1])
+end
+redis.call('del', deltaKey)
+return redis.call('hgetall', flushingKey)
@@ -2,7 +2,13 @@
 --- Generated by EmmyLua(https://github.com/EmmyLua)
 --- Created by qianzhikang.
 --- DateTime: 2023/4/27 15:50
---- 判断用户是否具有秒杀资格
+--- 判断用户是否具有秒杀资格，脚本访问的 key 全部通过 KEYS 传入
+--- key：库存key seckill:stock:{优惠券id}
+local stockKey = KEYS[1]
+--- key：下单用户key seckill:order:{优惠券id}
+local orderKey = KEYS[2]
+--- key：订单队列key stream.orders
+local streamKey = KEYS[3]
 --- 参数：优惠券id
 local voucherId = ARGV[1]
 --- 参数：用户id参数
@@ -10,11 +16,6 @@ local userId = ARGV[2]
 --- 订单id
 local orderId = ARGV[3]
 
---- key： 库存key
-local stockKey = 'seckill:stock:' .. voucherId
---- key: 订单key
-local orderKey = 'seckill:order:' .. voucherId
-
 --- 脚本业务
 if (tonumber(redis.call('get', stockKey)) <= 0) then
     return 1
@@ -27,6 +28,8 @@ end
 redis.call('incrby', stockKey, -1)
 --- 下单保存id
 redis.call('sadd', orderKey, userId)
+--- 发送订单消息到队列中 XADD stream.orders * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
 return 0
 
 
@@ -0,0 +1,35 @@
+---
+--- Created by qianzhikang.
+--- DateTime: 2023/5/16 10:30
+--- 分片库存秒杀，一次只操作一个分片，所有 key 带相同的 hash tag
+--- key：分片库存key
+local stockKey = KEYS[1]
+--- key：用户所属分片的下单用户key（用户所属分片时传入）
+local orderKey = KEYS[2]
+--- key：分片订单队列key
+local streamKey = KEYS[3]
+--- 参数：优惠券id
+local voucherId = ARGV[1]
+--- 参数：用户id
+local userId = ARGV[2]
+--- 参数：订单id
+local orderId = ARGV[3]
+--- 参数：是否为用户所属分片 1：是  0：否
+local home = ARGV[4] == '1'
+
+--- 用户所属分片：先判断一人一单，再占位，库存不足时占位保留，由调用方尝试其它分片，全部失败后删除
+if home then
+    if (redis.call('sismember', orderKey, userId) == 1) then
+        return 2
+    end
+    redis.call('sadd', orderKey, userId)
+end
+--- 判断分片库存
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    return 1
+end
+--- 扣减库存
+redis.call('incrby', stockKey, -1)
+--- 发送订单消息到分片队列
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
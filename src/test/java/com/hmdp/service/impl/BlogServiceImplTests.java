@@ -0,0 +1,79 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.mapper.BlogMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class BlogServiceImplTests {
+
+    private StringRedisTemplate template;
+
+    private ValueOperations<String, String> ops;
+
+    private HashOperations<String, Object, Object> hashOps;
+
+    private BlogMapper blogMapper;
+
+    private BlogServiceImpl blogService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ops = mock(ValueOperations.class);
+        hashOps = mock(HashOperations.class);
+        template = mock(StringRedisTemplate.class);
+        when(template.opsForValue()).thenReturn(ops);
+        when(template.<Object, Object>opsForHash()).thenReturn(hashOps);
+        blogMapper = mock(BlogMapper.class);
+
+        blogService = new BlogServiceImpl();
+        ReflectionTestUtils.setField(blogService, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(blogService, "baseMapper", blogMapper);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flushAddsDeltasInsteadOfOverwriting() {
+        when(ops.setIfAbsent(eq("lock:" + BLOG_LIKED_FLUSH_LOCK_NAME), anyString(), anyLong(), any())).thenReturn(true);
+        // 笔记 2 点赞后又取消，增量为 0
+        when(template.execute(any(RedisScript.class), eq(Arrays.asList(BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY))))
+                .thenReturn(Arrays.asList("1", "2", "2", "0", "3", "-1"));
+
+        ReflectionTestUtils.invokeMethod(blogService, "flushLiked");
+
+        Map<Long, Long> expected = new HashMap<>();
+        expected.put(1L, 2L);
+        expected.put(3L, -1L);
+        verify(blogMapper).incrLikedBatch(expected);
+        verify(template).delete(argThat((List<String> keys) -> keys.size() == 2
+                && keys.containsAll(Arrays.asList(CACHE_BLOG_KEY + 1, CACHE_BLOG_KEY + 3))));
+        // 增量为 0 的笔记同样从处理中移除
+        verify(hashOps).delete(BLOG_LIKED_FLUSHING_KEY, "1", "2", "3");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flushSkipsWhileLockHeld() {
+        when(ops.setIfAbsent(anyString(), anyString(), anyLong(), any())).thenReturn(false);
+
+        ReflectionTestUtils.invokeMethod(blogService, "flushLiked");
+
+        verify(template, never()).execute(any(RedisScript.class), anyList());
+        verifyNoInteractions(blogMapper);
+    }
+}
@@ -0,0 +1,133 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.entity.Blog;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedServiceImplTests {
+
+    @Test
+    void mergesSourcesByScoreThenId() {
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>(Arrays.asList(
+                tuple("1", 100), tuple("5", 300), tuple("3", 200), tuple("4", 200), tuple("2", 300)));
+        ScrollResult result = FeedServiceImpl.page(merged, 1000, 0, 10);
+        assertEquals(Arrays.asList(5L, 2L, 4L, 3L, 1L), result.getList());
+        assertEquals(100L, result.getMinTime());
+        assertEquals(1, result.getOffset());
+    }
+
+    @Test
+    void cursorCountsTiesAtMinTime() {
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>(Arrays.asList(
+                tuple("1", 300), tuple("2", 200), tuple("3", 200), tuple("4", 200)));
+        ScrollResult first = FeedServiceImpl.page(merged, 1000, 0, 3);
+        assertEquals(Arrays.asList(1L, 4L, 3L), first.getList());
+        assertEquals(200L, first.getMinTime());
+        assertEquals(2, first.getOffset());
+
+        // 下一页跳过已返回的两个分值为 200 的元素
+        List<ZSetOperations.TypedTuple<String>> next = new ArrayList<>(Arrays.asList(
+                tuple("2", 200), tuple("3", 200), tuple("4", 200)));
+        ScrollResult second = FeedServiceImpl.page(next, 200, 2, 3);
+        assertEquals(Arrays.asList(2L), second.getList());
+        assertEquals(200L, second.getMinTime());
+        assertEquals(3, second.getOffset());
+    }
+
+    @Test
+    void emptyPageKeepsCursor() {
+        ScrollResult result = FeedServiceImpl.page(new ArrayList<>(), 500, 2, 3);
+        assertTrue(result.getList().isEmpty());
+        assertEquals(500L, result.getMinTime());
+        assertEquals(2, result.getOffset());
+    }
+
+    @Test
+    void scrollingVisitsEveryItemOnce() {
+        Random random = new Random(7);
+        // 三个来源，分值集中在少数几个值上，制造跨页的相同分值
+        List<List<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>();
+        List<ZSetOperations.TypedTuple<String>> all = new ArrayList<>();
+        int id = 1;
+        for (int s = 0; s < 3; s++) {
+            List<ZSetOperations.TypedTuple<String>> source = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                ZSetOperations.TypedTuple<String> tuple = tuple(String.valueOf(id++), 1000 + random.nextInt(8) * 10);
+                source.add(tuple);
+                all.add(tuple);
+            }
+            sources.add(source);
+        }
+        List<Long> expected = FeedServiceImpl.page(new ArrayList<>(all), Long.MAX_VALUE, 0, all.size())
+                .getList().stream().map(Long.class::cast).collect(Collectors.toList());
+
+        List<Long> visited = new ArrayList<>();
+        long max = Long.MAX_VALUE;
+        int offset = 0;
+        for (int pages = 0; pages < 100; pages++) {
+            List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>();
+            for (List<ZSetOperations.TypedTuple<String>> source : sources) {
+                merged.addAll(read(source, max, offset + 7));
+            }
+            ScrollResult result = FeedServiceImpl.page(merged, max, offset, 7);
+            if (result.getList().isEmpty()) {
+                break;
+            }
+            result.getList().forEach(item -> visited.add((Long) item));
+            max = result.getMinTime();
+            offset = result.getOffset();
+        }
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    void rebuildKeepsPostsOfDemotedBigV() {
+        // 作者 2 曾是大V：9 在成为大V之前推送到收件箱，10 写入发件箱，降级后发布的 11 推送到收件箱
+        List<Blog> blogs = Arrays.asList(blog(12L), blog(11L), blog(10L), blog(9L));
+        List<Blog> inbox = FeedServiceImpl.inboxBlogs(blogs, new HashSet<>(Collections.singletonList("10")), 10);
+        assertEquals(Arrays.asList(12L, 11L, 9L), inbox.stream().map(Blog::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void rebuildLimitsInboxSizeAfterExcludingOutbox() {
+        List<Blog> blogs = Arrays.asList(blog(5L), blog(4L), blog(3L), blog(2L), blog(1L));
+        List<Blog> inbox = FeedServiceImpl.inboxBlogs(blogs, new HashSet<>(Arrays.asList("5", "3")), 2);
+        assertEquals(Arrays.asList(4L, 2L), inbox.stream().map(Blog::getId).collect(Collectors.toList()));
+    }
+
+    private static Blog blog(Long id) {
+        Blog blog = new Blog();
+        blog.setId(id);
+        return blog;
+    }
+
+    /**
+     * 模拟 ZREVRANGEBYSCORE key 0 max LIMIT 0 limit
+     */
+    private static List<ZSetOperations.TypedTuple<String>> read(List<ZSetOperations.TypedTuple<String>> source, long max, long limit) {
+        return source.stream()
+                .filter(tuple -> tuple.getScore() <= max)
+                .sorted(Comparator.comparing(ZSetOperations.TypedTuple<String>::getScore)
+                        .thenComparing(ZSetOperations.TypedTuple::getValue)
+                        .reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private static ZSetOperations.TypedTuple<String> tuple(String value, double score) {
+        return new DefaultTypedTuple<>(value, score);
+    }
+}
@@ -0,0 +1,112 @@
+package com.hmdp.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopTypeMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_CHANGED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_VERSION_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ShopTypeServiceImplTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicLong version = new AtomicLong();
+
+    private List<ShopType> types = new ArrayList<>();
+
+    private ShopTypeMapper mapper;
+
+    private StringRedisTemplate template;
+
+    private ShopTypeServiceImpl service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(ops.get(SHOP_TYPE_VERSION_KEY)).thenAnswer(inv -> version.get() == 0 ? null : String.valueOf(version.get()));
+        when(ops.increment(SHOP_TYPE_VERSION_KEY)).thenAnswer(inv -> version.incrementAndGet());
+        template = mock(StringRedisTemplate.class);
+        when(template.opsForValue()).thenReturn(ops);
+
+        mapper = mock(ShopTypeMapper.class);
+        when(mapper.selectList(any())).thenAnswer(inv -> new ArrayList<>(types));
+        when(mapper.insert(any())).thenReturn(1);
+
+        service = new ShopTypeServiceImpl();
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(service, "objectMapper", objectMapper);
+        types = Arrays.asList(type(1L, "美食"), type(2L, "KTV"));
+    }
+
+    @Test
+    void bodyIsSerializedResult() throws Exception {
+        byte[] body = service.queryTypeListBody();
+        assertArrayEquals(objectMapper.writeValueAsBytes(Result.ok(types)), body);
+        // 快照命中，不再查询数据库
+        assertSame(body, service.queryTypeListBody());
+        verify(mapper, times(1)).selectList(any());
+    }
+
+    @Test
+    void reloadsOnlyWhenVersionChanges() {
+        service.queryTypeListBody();
+        ReflectionTestUtils.invokeMethod(service, "checkVersion");
+        verify(mapper, times(1)).selectList(any());
+
+        types = Collections.singletonList(type(3L, "酒店"));
+        version.incrementAndGet();
+        ReflectionTestUtils.invokeMethod(service, "checkVersion");
+        verify(mapper, times(2)).selectList(any());
+        assertEquals(types, service.queryTypeList().getData());
+    }
+
+    @Test
+    void saveBumpsVersionAndNotifies() {
+        service.queryTypeListBody();
+        service.saveType(type(null, "酒店"));
+        assertEquals(1, version.get());
+        verify(template).convertAndSend(SHOP_TYPE_CHANGED_CHANNEL, "1");
+    }
+
+    @Test
+    void ignoresNotificationOfLoadedVersion() {
+        version.set(3);
+        service.queryTypeListBody();
+        service.onMessage(new DefaultMessage(SHOP_TYPE_CHANGED_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                "3".getBytes(StandardCharsets.UTF_8)), null);
+        verify(mapper, times(1)).selectList(any());
+    }
+
+    @Test
+    void updateRequiresId() {
+        assertFalse(service.updateType(type(null, "酒店")).getSuccess());
+        assertEquals(0, version.get());
+    }
+
+    private static ShopType type(Long id, String name) {
+        ShopType type = new ShopType();
+        type.setId(id);
+        type.setName(name);
+        return type;
+    }
+}
@@ -0,0 +1,118 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class SignServiceImplTests {
+
+    private static final long USER_ID = 1010L;
+
+    /**
+     * 已签到的日期
+     */
+    private final Set<LocalDate> signed = new HashSet<>();
+
+    private SignServiceImpl signService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        // 模拟 BITFIELD GET u{days} 0：第 1 天为最高位
+        when(ops.bitField(anyString(), any(BitFieldSubCommands.class))).thenAnswer(inv -> {
+            String key = inv.getArgument(0);
+            BitFieldSubCommands commands = inv.getArgument(1);
+            int days = commands.getSubCommands().get(0).getType().getBits();
+            YearMonth month = YearMonth.parse(key.substring(key.lastIndexOf(':') + 1), DateTimeFormatter.ofPattern("yyyyMM"));
+            long bits = 0;
+            for (int day = 1; day <= days; day++) {
+                bits = bits << 1 | (signed.contains(month.atDay(day)) ? 1 : 0);
+            }
+            return Collections.singletonList(bits);
+        });
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.opsForValue()).thenReturn(ops);
+
+        signService = new SignServiceImpl();
+        ReflectionTestUtils.setField(signService, "stringRedisTemplate", template);
+        UserDTO user = new UserDTO();
+        user.setId(USER_ID);
+        UserHolder.saveUser(user);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void trailingOnesCountsFromLowestBit() {
+        assertEquals(0, SignServiceImpl.trailingOnes(0b0110L, 4));
+        assertEquals(2, SignServiceImpl.trailingOnes(0b1011L, 4));
+        assertEquals(4, SignServiceImpl.trailingOnes(0b1111L, 4));
+        // 不超过当月已过的天数
+        assertEquals(3, SignServiceImpl.trailingOnes(0b1111L, 3));
+        assertEquals(31, SignServiceImpl.trailingOnes((1L << 31) - 1, 31));
+        assertEquals(0, SignServiceImpl.trailingOnes(0b1L, 0));
+    }
+
+    @Test
+    void streakWithoutSignToday() {
+        assertEquals(0, signCount());
+        LocalDate today = LocalDate.now();
+        sign(today.minusDays(1));
+        // 今天未签到，从昨天开始计算
+        assertEquals(1, signCount());
+        sign(today);
+        assertEquals(2, signCount());
+    }
+
+    @Test
+    void streakBreaksOnMissedDay() {
+        LocalDate today = LocalDate.now();
+        sign(today);
+        sign(today.minusDays(2));
+        sign(today.minusDays(3));
+        assertEquals(1, signCount());
+    }
+
+    @Test
+    void streakContinuesIntoPreviousMonths() {
+        LocalDate today = LocalDate.now();
+        // 连续 70 天，至少跨过两个月初
+        for (int i = 0; i < 70; i++) {
+            sign(today.minusDays(i));
+        }
+        sign(today.minusDays(72));
+        assertEquals(70, signCount());
+    }
+
+    private void sign(LocalDate date) {
+        signed.add(date);
+    }
+
+    private int signCount() {
+        Result result = signService.signCount();
+        return ((Number) result.getData()).intValue();
+    }
+}
@@ -0,0 +1,74 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class VoucherOrderServiceImplTests {
+
+    private static final Long VOUCHER_ID = 10L;
+
+    private StreamOperations<String, Object, Object> streamOps;
+
+    private VoucherOrderServiceImpl proxy;
+
+    private VoucherOrderServiceImpl service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        streamOps = mock(StreamOperations.class);
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.opsForStream()).thenReturn(streamOps);
+        RedissonClient redissonClient = mock(RedissonClient.class);
+        RLock lock = mock(RLock.class);
+        when(lock.tryLock()).thenReturn(true);
+        when(redissonClient.getLock(anyString())).thenReturn(lock);
+        proxy = mock(VoucherOrderServiceImpl.class);
+
+        service = new VoucherOrderServiceImpl();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(service, "redissonClient", redissonClient);
+        ReflectionTestUtils.setField(service, "voucherOrderServiceImpl", proxy);
+    }
+
+    @Test
+    void soldOutOrderGoesToDeadLetterInsteadOfAck() {
+        // 整批库存不足，逐条处理时第一条下单成功，第二条库存不足
+        doThrow(new IllegalStateException("库存不足")).when(proxy).createVoucherOrders(eq(VOUCHER_ID), anyList());
+        doNothing().doThrow(new IllegalStateException("库存不足")).when(proxy).createVoucherOrder(any(VoucherOrder.class));
+
+        List<MapRecord<String, Object, Object>> records = Arrays.asList(record("1-0", 1L, 101L), record("2-0", 2L, 102L));
+        ReflectionTestUtils.invokeMethod(service, "handleRecords", SECKILL_ORDER_STREAM_KEY, records);
+
+        verify(streamOps).add(eq(SECKILL_ORDER_STREAM_KEY + SECKILL_ORDER_DEAD_LETTER_SUFFIX),
+                argThat((Map<String, String> body) -> "2".equals(body.get("id")) && "库存不足".equals(body.get("reason"))));
+        verify(streamOps).acknowledge(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, RecordId.of("2-0"));
+        verify(streamOps).acknowledge(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, RecordId.of("1-0"));
+    }
+
+    private static MapRecord<String, Object, Object> record(String recordId, Long orderId, Long userId) {
+        Map<Object, Object> body = new HashMap<>();
+        body.put("id", orderId.toString());
+        body.put("userId", userId.toString());
+        body.put("voucherId", VOUCHER_ID.toString());
+        return StreamRecords.newRecord().in(SECKILL_ORDER_STREAM_KEY).withId(RecordId.of(recordId)).ofMap(body);
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCacheCodecTests {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec(true);
+
+    @Test
+    void roundTripRegisteredType() {
+        Shop shop = shop(1L);
+        byte[] bytes = codec.encode(shop);
+        assertTrue(codec.canDecode(bytes));
+        assertEquals(shop, codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void roundTripNullFields() {
+        Shop shop = new Shop().setId(2L);
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+    }
+
+    @Test
+    void roundTripList() {
+        List<ShopType> types = Arrays.asList(
+                new ShopType().setId(1L).setName("美食").setIcon("/types/ms.png").setSort(1),
+                new ShopType().setId(2L).setName("KTV").setSort(2));
+        assertEquals(types, codec.decodeList(codec.encodeList(types), ShopType.class));
+    }
+
+    @Test
+    void roundTripWithExpire() {
+        UserDTO user = new UserDTO();
+        user.setId(3L);
+        user.setNickName("小鱼同学");
+        CacheCodec.ExpireData<UserDTO> data = codec.decodeWithExpire(codec.encodeWithExpire(user, 1000L), UserDTO.class);
+        assertEquals(user, data.getData());
+        assertEquals(1000L, data.getExpireMillis());
+        assertTrue(data.isExpired(1000L));
+        assertFalse(data.isExpired(999L));
+    }
+
+    @Test
+    void unregisteredTypeFallsBackToJson() {
+        Voucher voucher = new Voucher().setId(4L).setTitle("50元代金券").setPayValue(4750L);
+        Voucher decoded = codec.decode(codec.encode(voucher), Voucher.class);
+        assertEquals(4L, decoded.getId());
+        assertEquals("50元代金券", decoded.getTitle());
+        assertEquals(4750L, decoded.getPayValue());
+    }
+
+    @Test
+    void readsLegacyJson() {
+        Shop shop = shop(5L);
+        JsonCacheCodec jsonCodec = new JsonCacheCodec();
+        assertEquals(shop.getName(), codec.decode(jsonCodec.encode(shop), Shop.class).getName());
+        CacheCodec.ExpireData<Shop> data = codec.decodeWithExpire(jsonCodec.encodeWithExpire(shop, 1684300000000L), Shop.class);
+        assertEquals(shop.getName(), data.getData().getName());
+        assertEquals(1684300000000L, data.getExpireMillis());
+        // 关闭二进制写入时写出 json
+        byte[] json = new BinaryCacheCodec(false).encode(shop);
+        assertEquals('{', (char) json[0]);
+        assertTrue(new String(json, StandardCharsets.UTF_8).contains("\"name\""));
+    }
+
+    @Test
+    void newerVersionIsNotDecodable() {
+        byte[] bytes = codec.encode(shop(6L));
+        // 第二个字节为版本
+        bytes[1] = (byte) (bytes[1] + 1);
+        assertFalse(codec.canDecode(bytes));
+        assertNull(codec.decode(bytes, Shop.class));
+
+        byte[] expire = codec.encodeWithExpire(shop(6L), 1000L);
+        expire[1] = (byte) (expire[1] + 1);
+        assertFalse(codec.canDecode(expire));
+        assertNull(codec.decodeWithExpire(expire, Shop.class));
+    }
+
+    @Test
+    void unknownFormatOrTruncatedHeaderIsNotDecodable() {
+        byte[] bytes = codec.encode(shop(7L));
+        bytes[2] = 9;
+        assertFalse(codec.canDecode(bytes));
+        assertFalse(codec.canDecode(new byte[]{(byte) 0xCB, 1}));
+    }
+
+    @Test
+    void formatMismatchDecodesToNull() {
+        // 普通数据按逻辑过期数据读取
+        assertNull(codec.decodeWithExpire(codec.encode(shop(8L)), Shop.class));
+    }
+
+    @Test
+    void typeMismatchIsRejected() {
+        byte[] bytes = codec.encode(shop(9L));
+        assertThrows(IllegalStateException.class, () -> codec.decode(bytes, ShopType.class));
+    }
+
+    private static Shop shop(Long id) {
+        return new Shop()
+                .setId(id)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/a.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19, 123000000));
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalCacheTests {
+
+    private static final String PREFIX = "cache:shop:";
+
+    private static final String KEY = PREFIX + 1;
+
+    private static final byte[] VALUE = {1, 2, 3};
+
+    private LocalCache localCache;
+
+    @BeforeEach
+    void setUp() {
+        localCache = new LocalCache();
+        ReflectionTestUtils.setField(localCache, "enabled", true);
+        localCache.register(PREFIX, 100, 60L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void putKeepsValueReadWithoutInvalidation() {
+        long generation = localCache.generation(KEY);
+        localCache.put(PREFIX, KEY, VALUE, generation);
+        assertArrayEquals(VALUE, localCache.get(PREFIX, KEY));
+    }
+
+    @Test
+    void putSkipsValueReadBeforeInvalidation() {
+        // 查询 redis 读到旧值的同时，缓存被删除并广播失效
+        long generation = localCache.generation(KEY);
+        localCache.invalidate(KEY);
+        localCache.put(PREFIX, KEY, VALUE, generation);
+        assertNull(localCache.get(PREFIX, KEY));
+
+        // 失效之后的查询可以正常写入
+        localCache.put(PREFIX, KEY, VALUE, localCache.generation(KEY));
+        assertArrayEquals(VALUE, localCache.get(PREFIX, KEY));
+    }
+
+    @Test
+    void invalidationOfOtherKeyDoesNotBlockPut() {
+        long generation = localCache.generation(KEY);
+        localCache.invalidate(PREFIX + 2);
+        localCache.put(PREFIX, KEY, VALUE, generation);
+        assertArrayEquals(VALUE, localCache.get(PREFIX, KEY));
+    }
+}
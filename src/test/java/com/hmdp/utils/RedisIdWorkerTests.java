@@ -0,0 +1,126 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class RedisIdWorkerTests {
+
+    private static final long BEGIN_TIMESTAMP = 1672531200L;
+
+    private static final LocalDateTime BEFORE_MIDNIGHT = LocalDateTime.of(2023, 5, 20, 23, 59, 59);
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private ValueOperations<String, String> ops;
+
+    private RedisIdWorker worker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ops = mock(ValueOperations.class);
+        when(ops.increment(anyString(), anyLong())).thenAnswer(inv ->
+                counters.computeIfAbsent(inv.getArgument(0), k -> new AtomicLong()).addAndGet(inv.getArgument(1)));
+        when(ops.increment(anyString())).thenAnswer(inv ->
+                counters.computeIfAbsent(inv.getArgument(0), k -> new AtomicLong()).incrementAndGet());
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.opsForValue()).thenReturn(ops);
+
+        worker = new RedisIdWorker();
+        ReflectionTestUtils.setField(worker, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(worker, "segmentEnabled", true);
+        ReflectionTestUtils.setField(worker, "step", 10L);
+        ReflectionTestUtils.setField(worker, "lowWaterRatio", 0.2);
+        setTime(BEFORE_MIDNIGHT);
+    }
+
+    @Test
+    void idsIncreaseAcrossSegments() {
+        long last = 0;
+        Set<Long> ids = new HashSet<>();
+        for (int i = 1; i <= 35; i++) {
+            long id = worker.nextId("order");
+            assertTrue(id > last);
+            assertTrue(ids.add(id));
+            assertEquals(timestamp(BEFORE_MIDNIGHT), id >>> 32);
+            last = id;
+        }
+        // 每段 10 个，35 个id至少占用 4 段
+        assertTrue(counters.get("icr:order:2023:05:20:").get() >= 40);
+    }
+
+    @Test
+    void switchesToNextDay() {
+        long first = worker.nextId("order");
+        assertEquals(1, first & 0xFFFFFFFFL);
+
+        LocalDateTime midnight = BEFORE_MIDNIGHT.plusSeconds(1);
+        setTime(midnight);
+        long id = worker.nextId("order");
+        assertEquals(timestamp(midnight), id >>> 32);
+        assertEquals(1, id & 0xFFFFFFFFL);
+        assertEquals(10, counters.get("icr:order:2023:05:21:").get());
+    }
+
+    @Test
+    void staleDayDoesNotSwitchBack() {
+        worker.nextId("order");
+        LocalDateTime midnight = BEFORE_MIDNIGHT.plusSeconds(1);
+        setTime(midnight);
+        long newDay = worker.nextId("order");
+
+        // 仍读到前一天时间的线程不能把号段切回前一天
+        setTime(BEFORE_MIDNIGHT);
+        long stale = worker.nextId("order");
+        assertEquals(timestamp(midnight), stale >>> 32);
+        assertEquals((newDay & 0xFFFFFFFFL) + 1, stale & 0xFFFFFFFFL);
+        assertEquals(10, counters.get("icr:order:2023:05:20:").get());
+
+        setTime(midnight);
+        assertEquals((stale & 0xFFFFFFFFL) + 1, worker.nextId("order") & 0xFFFFFFFFL);
+        verify(ops, times(1)).increment(eq("icr:order:2023:05:20:"), anyLong());
+    }
+
+    @Test
+    void rejectsCountOverflow() {
+        counters.put("icr:order:2023:05:20:", new AtomicLong(0xFFFFFFFFL - 5));
+        for (int i = 0; i < 4; i++) {
+            worker.nextId("order");
+        }
+        assertEquals(0xFFFFFFFFL, worker.nextId("order") & 0xFFFFFFFFL);
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    @Test
+    void rejectsCountOverflowWithoutSegment() {
+        ReflectionTestUtils.setField(worker, "segmentEnabled", false);
+        counters.put("icr:order:2023:05:20:", new AtomicLong(0xFFFFFFFFL - 1));
+        assertEquals(0xFFFFFFFFL, worker.nextId("order") & 0xFFFFFFFFL);
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    private void setTime(LocalDateTime time) {
+        ReflectionTestUtils.setField(worker, "clock", Clock.fixed(time.toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+    }
+
+    private static long timestamp(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class SeckillSoldOutFlagsTests {
+
+    private static final Long VOUCHER_ID = 10L;
+
+    private SeckillSoldOutFlags flags;
+
+    @BeforeEach
+    void setUp() {
+        flags = new SeckillSoldOutFlags();
+        ReflectionTestUtils.setField(flags, "stringRedisTemplate", mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(flags, "recheckMillis", 1000L);
+    }
+
+    @Test
+    void onlyOneRequestRechecksAfterInterval() {
+        flags.markSoldOut(VOUCHER_ID);
+        assertTrue(flags.isSoldOut(VOUCHER_ID));
+
+        expire();
+        // 第一个请求放行复查，其余请求在复查结果出来前仍然拒绝
+        assertFalse(flags.isSoldOut(VOUCHER_ID));
+        assertTrue(flags.isSoldOut(VOUCHER_ID));
+        assertTrue(flags.isSoldOut(VOUCHER_ID));
+    }
+
+    @Test
+    void markAvailableClearsFlag() {
+        flags.markSoldOut(VOUCHER_ID);
+        expire();
+        assertFalse(flags.isSoldOut(VOUCHER_ID));
+
+        // 复查时下单成功
+        flags.markAvailable(VOUCHER_ID);
+        assertFalse(flags.isSoldOut(VOUCHER_ID));
+        assertFalse(flags.isSoldOut(VOUCHER_ID));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expire() {
+        Map<Long, Long> soldOut = (Map<Long, Long>) ReflectionTestUtils.getField(flags, "soldOut");
+        soldOut.put(VOUCHER_ID, System.currentTimeMillis() - 2000);
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeckillStockShardsTests {
+
+    @Test
+    void splitSpreadsRemainderOverFirstShards() {
+        SeckillStockShards shards = shards(4);
+        assertArrayEquals(new int[]{3, 3, 2, 2}, shards.split(10));
+        assertArrayEquals(new int[]{1, 1, 0, 0}, shards.split(2));
+        assertArrayEquals(new int[]{0, 0, 0, 0}, shards.split(0));
+        assertEquals(1001, Arrays.stream(shards.split(1001)).sum());
+    }
+
+    @Test
+    void homeShardIsStableAndInRange() {
+        SeckillStockShards shards = shards(8);
+        for (long userId = -100; userId < 100; userId++) {
+            int home = shards.homeShard(userId);
+            assertTrue(home >= 0 && home < 8);
+            assertEquals(home, shards.homeShard(userId));
+        }
+    }
+
+    @Test
+    void keysOfOneShardShareHashTag() {
+        SeckillStockShards shards = shards(4);
+        String tag = "{10:3}";
+        assertEquals("seckill:stock:" + tag, shards.stockKey(10L, 3));
+        assertEquals("seckill:order:" + tag, shards.orderKey(10L, 3));
+        assertEquals("stream.orders:" + tag, shards.streamKey(10L, 3));
+    }
+
+    @Test
+    void differentVouchersUseDifferentHashTags() {
+        SeckillStockShards shards = shards(4);
+        Set<String> tags = new HashSet<>();
+        for (long voucherId = 1; voucherId <= 3; voucherId++) {
+            for (int shard = 0; shard < 4; shard++) {
+                String key = shards.stockKey(voucherId, shard);
+                tags.add(key.substring(key.indexOf('{')));
+            }
+        }
+        assertEquals(12, tags.size());
+        assertEquals(Arrays.asList("stream.orders:{7:0}", "stream.orders:{7:1}", "stream.orders:{7:2}", "stream.orders:{7:3}"),
+                shards.streamKeys(7L));
+    }
+
+    @Test
+    void enabledOnlyAboveOneShard() {
+        assertFalse(shards(1).isEnabled());
+        assertTrue(shards(2).isEnabled());
+    }
+
+    private static SeckillStockShards shards(int count) {
+        SeckillStockShards shards = new SeckillStockShards();
+        ReflectionTestUtils.setField(shards, "shards", count);
+        return shards;
+    }
+}
@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ShopGeoIndexTests {
+
+    private ShopGeoIndex index;
+
+    private ShopMapper shopMapper;
+
+    private final List<Shop> shops = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        shopMapper = mock(ShopMapper.class);
+        index = new ShopGeoIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", mock(StringRedisTemplate.class));
+    }
+
+    @Test
+    void nearestMatchesBruteForceNearEquator() {
+        assertNearestMatchesBruteForce(120.15, 0.5);
+    }
+
+    @Test
+    void nearestMatchesBruteForceAtHighLatitude() {
+        // 高纬度的网格东西方向很窄，按查询点纬度估算的终止距离会偏大
+        assertNearestMatchesBruteForce(25.0, 69.5);
+    }
+
+    @Test
+    void nearestRespectsMaxMeters() {
+        publish(1L, 1L, 120.0, 30.0);
+        publish(2L, 1L, 120.0, 30.02);
+        publish(3L, 1L, 120.0, 30.2);
+        List<ShopGeoIndex.Hit> hits = index.nearest(1L, 120.0, 30.0, 10, 5000);
+        assertEquals(2, hits.size());
+        assertEquals(1L, hits.get(0).getId());
+        assertEquals(2L, hits.get(1).getId());
+        assertTrue(index.nearest(2L, 120.0, 30.0, 10, 5000).isEmpty());
+    }
+
+    @Test
+    void publishMovesAndRemovesShop() {
+        publish(1L, 1L, 120.0, 30.0);
+        publish(1L, 2L, 120.0, 30.0);
+        assertTrue(index.nearest(1L, 120.0, 30.0, 10, Double.MAX_VALUE).isEmpty());
+        assertEquals(1, index.nearest(2L, 120.0, 30.0, 10, Double.MAX_VALUE).size());
+
+        publish(1L, 2L, null, null);
+        assertTrue(index.nearest(2L, 120.0, 30.0, 10, Double.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void rebuildKeepsWritesMadeDuringScan() {
+        Shop moved = shop(1L, 1L, 120.0, 30.0);
+        Shop removed = shop(2L, 1L, 120.001, 30.0);
+        // 扫描返回旧数据的同时，两个店铺被修改
+        when(shopMapper.selectList(any()))
+                .thenAnswer(inv -> {
+                    publish(1L, 1L, 121.0, 31.0);
+                    publish(2L, 1L, null, null);
+                    publish(3L, 1L, 120.002, 30.0);
+                    return new ArrayList<>(Arrays.asList(moved, removed));
+                })
+                .thenReturn(Collections.emptyList());
+
+        ReflectionTestUtils.invokeMethod(index, "rebuild");
+
+        assertTrue(index.isReady());
+        List<Long> ids = ids(index.nearest(1L, 120.0, 30.0, 10, 1000));
+        assertEquals(Collections.singletonList(3L), ids);
+        assertEquals(Collections.singletonList(1L), ids(index.nearest(1L, 121.0, 31.0, 1, 1000)));
+    }
+
+    private void assertNearestMatchesBruteForce(double x, double y) {
+        Random random = new Random(42);
+        for (long id = 1; id <= 500; id++) {
+            publish(id, 1L, x + (random.nextDouble() - 0.5) * 0.4, y + (random.nextDouble() - 0.5) * 0.4);
+        }
+        for (int i = 0; i < 50; i++) {
+            double qx = x + (random.nextDouble() - 0.5) * 0.4;
+            double qy = y + (random.nextDouble() - 0.5) * 0.4;
+            for (int k : new int[]{1, 5, 20}) {
+                assertEquals(bruteForce(qx, qy, k), ids(index.nearest(1L, qx, qy, k, Double.MAX_VALUE)));
+            }
+        }
+    }
+
+    private List<Long> bruteForce(double x, double y, int k) {
+        return shops.stream()
+                .filter(shop -> shop.getX() != null)
+                .sorted(Comparator.comparingDouble(shop -> distance(x, y, shop.getX(), shop.getY())))
+                .limit(k)
+                .map(Shop::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * 6372797.560856 * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private void publish(Long id, Long typeId, Double x, Double y) {
+        Shop shop = shop(id, typeId, x, y);
+        shops.removeIf(s -> s.getId().equals(id));
+        shops.add(shop);
+        index.publish(shop);
+    }
+
+    private static Shop shop(Long id, Long typeId, Double x, Double y) {
+        return new Shop().setId(id).setTypeId(typeId).setX(x).setY(y);
+    }
+
+    private static List<Long> ids(List<ShopGeoIndex.Hit> hits) {
+        return hits.stream().map(ShopGeoIndex.Hit::getId).collect(Collectors.toList());
+    }
+}
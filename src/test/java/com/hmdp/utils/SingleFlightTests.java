@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTests {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    void concurrentCallsShareOneExecution() throws Exception {
+        int threads = 8;
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            Future<String> first = executorService.submit(() -> singleFlight.execute("key", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "value";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            List<Future<String>> waiters = new ArrayList<>();
+            for (int i = 1; i < threads; i++) {
+                waiters.add(executorService.submit(() -> singleFlight.execute("key", () -> {
+                    calls.incrementAndGet();
+                    return "other";
+                })));
+            }
+            // 等待其余线程进入 join
+            Thread.sleep(100);
+            release.countDown();
+            assertEquals("value", first.get(5, TimeUnit.SECONDS));
+            for (Future<String> waiter : waiters) {
+                assertEquals("value", waiter.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void failureIsSharedAndKeyIsReleased() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executorService.submit(() -> singleFlight.execute("key", () -> {
+                started.countDown();
+                await(release);
+                throw new IllegalStateException("boom");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> waiter = executorService.submit(() -> singleFlight.execute("key", () -> "other"));
+            Thread.sleep(100);
+            release.countDown();
+            assertCause(IllegalStateException.class, first);
+            assertCause(IllegalStateException.class, waiter);
+        } finally {
+            executorService.shutdownNow();
+        }
+        // 失败后 key 已释放，下一次调用重新执行
+        assertEquals("next", singleFlight.execute("key", () -> "next"));
+    }
+
+    @Test
+    void errorCompletesWaiters() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executorService.submit(() -> singleFlight.execute("key", () -> {
+                started.countDown();
+                await(release);
+                throw new StackOverflowError();
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> waiter = executorService.submit(() -> singleFlight.execute("key", () -> "other"));
+            Thread.sleep(100);
+            release.countDown();
+            assertCause(StackOverflowError.class, first);
+            // 等待中的调用不会一直阻塞
+            assertCause(StackOverflowError.class, waiter);
+        } finally {
+            executorService.shutdownNow();
+        }
+        assertEquals("next", singleFlight.execute("key", () -> "next"));
+    }
+
+    @Test
+    void submitSkipsWhileRunning() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(singleFlight.submit("key", executorService, () -> {
+                await(release);
+                done.countDown();
+            }));
+            assertFalse(singleFlight.submit("key", executorService, () -> {
+            }));
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            // 任务结束后 key 已释放
+            executorService.submit(() -> {
+            }).get(5, TimeUnit.SECONDS);
+            assertTrue(singleFlight.submit("key", executorService, () -> {
+            }));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static void assertCause(Class<? extends Throwable> type, Future<?> future) {
+        Throwable e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(type.isInstance(e.getCause()), String.valueOf(e.getCause()));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UvCounterTests {
+
+    private static final Set<String> TRUSTED_PROXIES = new HashSet<>(Arrays.asList("127.0.0.1", "0:0:0:0:0:0:0:1"));
+
+    @Test
+    void clientIpPrefersRightmostForwardedAddress() {
+        MockHttpServletRequest request = request("127.0.0.1");
+        // 客户端自带的 X-Forwarded-For 在左侧，nginx 追加的真实地址在最右侧
+        request.addHeader("X-Forwarded-For", "198.51.100.1, 203.0.113.7");
+        request.addHeader("X-Real-IP", "203.0.113.7");
+        assertEquals("203.0.113.7", UvCounter.clientIp(request, TRUSTED_PROXIES));
+    }
+
+    @Test
+    void clientIpSkipsTrustedProxiesInForwardedAddresses() {
+        MockHttpServletRequest request = request("0:0:0:0:0:0:0:1");
+        request.addHeader("X-Forwarded-For", " 198.51.100.1 , 127.0.0.1");
+        assertEquals("198.51.100.1", UvCounter.clientIp(request, TRUSTED_PROXIES));
+    }
+
+    @Test
+    void clientIpFallsBackToRealIp() {
+        MockHttpServletRequest request = request("127.0.0.1");
+        request.addHeader("X-Real-IP", " 203.0.113.7 ");
+        assertEquals("203.0.113.7", UvCounter.clientIp(request, TRUSTED_PROXIES));
+    }
+
+    @Test
+    void clientIpUsesRemoteAddressWithoutProxyHeaders() {
+        MockHttpServletRequest request = request("127.0.0.1");
+        request.addHeader("X-Real-IP", " ");
+        assertEquals("127.0.0.1", UvCounter.clientIp(request, TRUSTED_PROXIES));
+    }
+
+    @Test
+    void clientIpIgnoresSpoofedHeadersFromUntrustedAddress() {
+        // 绕过 nginx 直接访问，转发头由客户端伪造
+        MockHttpServletRequest request = request("198.51.100.9");
+        request.addHeader("X-Forwarded-For", "203.0.113.1");
+        request.addHeader("X-Real-IP", "203.0.113.2");
+        assertEquals("198.51.100.9", UvCounter.clientIp(request, TRUSTED_PROXIES));
+    }
+
+    private static MockHttpServletRequest request(String remoteAddr) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddr);
+        return request;
+    }
+}